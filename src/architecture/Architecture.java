@@ -1,9 +1,17 @@
 package architecture;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Scanner;
 
 import assembler.Assembler;
@@ -14,16 +22,21 @@ import components.Ula;
 
 public class Architecture {
 	
+	private static final long MAP_THRESHOLD = 1<<20; //binary executables with this size (bytes) or more are mapped
+	
 	private boolean simulation; //this boolean indicates if the execution is done in simulation mode.
 								//simulation mode shows the components' status after each instruction
-	
+	private boolean fast; //this boolean indicates if the execution is done by the functional engine,
+							//without the bus transfers of the microprograms
 	
 	private boolean halt;
+	private long executed; //the instructions executed by the last controlUnitEexec
 	private Bus extbus1;
 	private Bus intbus1;
 	private Bus intbus2;
 	private Memory memory;
-	private int memorySize;
+	private int memorySize = Isa.MEMORY_SIZE;
+	private boolean offHeap; //the memory pages are kept out of the java heap
 	private Register PC;
 	private Register IR;
 	private Register RPG;
@@ -35,14 +48,30 @@ public class Architecture {
 	private Bus demux; //only for multiple register purposes
 	
 	private ArrayList<String> commandsList;
+	//the commands of the architecture and their microprograms, indexed by the command number (see Isa).
+	//The control unit dispatches through this table
+	private final OpcodeDescriptor opcodes[] = describe(new Runnable[] {
+			this::addRegReg, this::addMemReg, this::addRegMem, this::addImmMem, //0-3
+			this::subRegReg, this::subMemReg, this::subRegMem, this::subImmMem, //4-7
+			this::imulMemReg, this::imulRegMem, this::imulRegReg, //8-10
+			this::moveMemReg, this::moveRegMem, this::moveRegReg, this::moveImmReg, //11-14
+			this::incReg, this::incMem, //15-16
+			this::jmp, this::jn, this::jz, this::jnz, //17-20
+			this::jeq, this::jgt, this::jlw, //21-23
+			this::ldi, this::read, this::store //24-26
+	});
 	private ArrayList<Register> registersList;
+	private FunctionalEngine engine;
+	private HashMap<Long, PrecompiledProgram> precompiledPrograms; //indexed by the image hash
+	private PrecompiledProgram precompiled; //the precompiled class of the program just loaded (if there is one)
 	
 	
 
 	/**
 	 * Instanciates all components in this architecture
+	 * @param parentMemory the memory forked by this architecture (null if it is a new one)
 	 */
-	private void componentsInstances() {
+	private void componentsInstances(Memory parentMemory) {
 		//don't forget the instantiation order
 		//buses -> registers -> ula -> memory
 		extbus1 = new Bus();
@@ -57,9 +86,12 @@ public class Architecture {
 		Flags = new Register(3, intbus2);
 		fillRegistersList();
 		ula = new Ula(intbus1, intbus2);
-		memorySize = 128;
-		memory = new Memory(memorySize, extbus1);
+		if (parentMemory == null)
+			memory = new Memory(memorySize, extbus1, offHeap);
+		else
+			memory = parentMemory.fork(extbus1);
 		demux = new Bus(); //this bus is used only for multiple register operations
+		precompiledPrograms = new HashMap<>();
 		
 		fillCommandsList();
 	}
@@ -84,7 +116,7 @@ public class Architecture {
 	 * Constructor that instanciates all components according the architecture diagram
 	 */
 	public Architecture() {
-		componentsInstances();
+		componentsInstances(null);
 		
 		//by default, the execution method is never simulation mode
 		simulation = false;
@@ -92,13 +124,122 @@ public class Architecture {
 
 	
 	public Architecture(boolean sim) {
-		componentsInstances();
+		componentsInstances(null);
 		
 		//in this constructor we can set the simoualtion mode on or off
 		simulation = sim;
 	}
+	
+	/**
+	 * Constructor that allows choosing the functional engine.
+	 * The functional engine is used only when the simulation mode is off,
+	 * once the simulation must show the buses status
+	 * @param sim
+	 * @param fast
+	 */
+	public Architecture(boolean sim, boolean fast) {
+		this(sim, fast, Isa.MEMORY_SIZE);
+	}
+
+	/**
+	 * Constructor that also allows choosing the memory size.
+	 * Big memories allocate only the pages used by the program (see Memory)
+	 * @param sim
+	 * @param fast
+	 * @param memorySize up to Integer.MAX_VALUE positions. The programs must be assembled for the same size
+	 */
+	public Architecture(boolean sim, boolean fast, int memorySize) {
+		this(sim, fast, memorySize, false);
+	}
+
+	/**
+	 * Constructor that also allows keeping the memory out of the java heap (see Memory)
+	 * @param sim
+	 * @param fast
+	 * @param memorySize up to Integer.MAX_VALUE positions. The programs must be assembled for the same size
+	 * @param offHeap
+	 */
+	public Architecture(boolean sim, boolean fast, int memorySize, boolean offHeap) {
+		if (memorySize <= 0)
+			throw new IllegalArgumentException("the memory must have at least one position");
+		this.memorySize = memorySize;
+		this.offHeap = offHeap;
+		componentsInstances(null);
+		simulation = sim;
+		this.fast = fast;
+		if (fast)
+			engine = new FunctionalEngine(this);
+	}
+
 
 
+	/**
+	 * This constructor creates a fork of the architecture (see fork)
+	 * @param parent
+	 */
+	private Architecture(Architecture parent) {
+		memorySize = parent.memorySize;
+		offHeap = parent.offHeap;
+		componentsInstances(parent.memory);
+		simulation = parent.simulation;
+		fast = parent.fast;
+		halt = parent.halt;
+		int regs[] = new int[FunctionalEngine.FLAGS+1];
+		FunctionalEngine.readRegisters(parent.registersList, regs);
+		FunctionalEngine.writeRegisters(registersList, regs);
+		extbus1.put(parent.extbus1.get());
+		intbus1.put(parent.intbus1.get());
+		intbus2.put(parent.intbus2.get());
+		demux.put(parent.demux.get());
+		precompiledPrograms.putAll(parent.precompiledPrograms);
+		precompiled = parent.precompiled;
+		if (fast) {
+			engine = new FunctionalEngine(this);
+			if (parent.engine.getCompileThreshold() > 0)
+				engine.enableCompilation(parent.engine.getCompileThreshold());
+		}
+	}
+
+	/**
+	 * This method creates an architecture in the same state (registers, flags, buses and memory).
+	 * The memories share their pages until they are changed (see Memory.fork), so forking
+	 * doesn't depend on the memory size. Each architecture can continue the execution
+	 * on its own, without changing the other
+	 * @return
+	 */
+	public Architecture fork() {
+		return new Architecture(this);
+	}
+
+	/**
+	 * This method puts the architecture back in the state it is when created (registers, flags,
+	 * buses and memory), without creating its components again.
+	 * The precompiled programs added and the block compilation are kept
+	 */
+	public void reset() {
+		FunctionalEngine.writeRegisters(registersList, new int[FunctionalEngine.FLAGS+1]);
+		extbus1.put(0);
+		intbus1.put(0);
+		intbus2.put(0);
+		demux.put(0);
+		ula.reset();
+		memory.reset();
+		halt = false;
+		executed = 0;
+		precompiled = null;
+		if (fast)
+			engine.reset();
+	}
+
+	/**
+	 * This method makes the functional engine compile the basic blocks executed more than
+	 * threshold times into java classes. It has no effect if the functional engine is not used
+	 * @param threshold
+	 */
+	public void enableBlockCompilation(int threshold) {
+		if (fast)
+			engine.enableCompilation(threshold);
+	}
 
 	//getters
 	
@@ -178,33 +319,7 @@ public class Architecture {
 	protected void fillCommandsList() {
 		commandsList = new ArrayList<String>();
 		
-		commandsList.add("addRegReg"); //0
-		commandsList.add("addMemReg"); //1
-		commandsList.add("addRegMem"); //2
-		commandsList.add("addImmMem"); //3
-		commandsList.add("subRegReg"); //4
-		commandsList.add("subMemReg"); //5
-		commandsList.add("subRegMem"); //6		
-		commandsList.add("subImmMem"); //7
-		commandsList.add("imulMemReg"); //8
-		commandsList.add("imulRegMem"); //9
-		commandsList.add("imulRegReg"); //10
-		commandsList.add("moveMemReg"); //11
-		commandsList.add("moveRegMem"); //12
-		commandsList.add("moveRegReg"); //13
-		commandsList.add("moveImmReg"); //14
-		commandsList.add("incReg"); //15
-		commandsList.add("incMem"); //16
-		commandsList.add("jmp"); //17
-		commandsList.add("jn"); //18
-		commandsList.add("jz"); //19
-		commandsList.add("jnz"); //20
-		commandsList.add("jeq"); //21
-		commandsList.add("jgt"); //22
-		commandsList.add("jlw"); //23
-		commandsList.add("ldi"); //24
-		commandsList.add("read"); //25
-		commandsList.add("store"); //26
+		commandsList.addAll(Isa.getCommandsList());
 	}
 
 	
@@ -511,30 +626,10 @@ public class Architecture {
 		IR.internalRead();
 		ula.internalStore(1);
 		registersInternalRead();
-		if(intbus1.get()>0) {
-			for (int i = intbus1.get(); i>1; i--) {
-				ula.internalStore(0);
-				ula.add();
-			}	
-			ula.read(1);
-			registersInternalStore();
-		}else {
-			if(intbus1.get()<0) {
-				for (int i = intbus1.get(); i<1; i++) {
-					ula.read(1);
-					ula.store(0);
-					ula.internalStore(1);
-					ula.sub();
-				}
-				ula.read(1);
-				registersInternalStore();
-			}else {
-				if(intbus1.get()==0) {
-					registersInternalStore();
-				}
-			}
-		}
-		
+		ula.store(0); //the multiplier (the register) is in reg1 and the multiplicand in reg2
+		ula.mul();
+		ula.read(1);
+		registersInternalStore();
 		setStatusFlags(intbus1.get());
 		PC.internalRead(); //we need to make PC points to the next instruction address
 		ula.internalStore(1);
@@ -575,11 +670,9 @@ public class Architecture {
 		IR.internalRead();
 		ula.internalStore(1);
 		registersInternalRead();
-		if(intbus1.get()>0) {
-			for (int i = intbus1.get(); i>1; i--) {
-				ula.internalStore(0);
-				ula.add();
-			}
+		if(intbus1.get()!=0) {
+			ula.store(0); //the multiplier (the register) is in reg1 and the multiplicand in reg2
+			ula.mul();
 			ula.internalRead(1);
 			IR.internalStore();
 			extbus1.put(aux);
@@ -588,31 +681,12 @@ public class Architecture {
 			IR.read();
 			memory.store();
 		}else {
-			if(intbus1.get()<0) {
-				for (int i = intbus1.get(); i<1; i++) {
-					ula.read(1);
-					ula.store(0);
-					ula.internalStore(1);
-					ula.sub();
-				}
-				ula.internalRead(1);
-				IR.internalStore();
-				extbus1.put(aux);
-				memory.read();
-				memory.store();
-				IR.read();
-				memory.store();
-			}else {
-				if(intbus1.get()==0) {
-					extbus1.put(aux);
-					memory.read();
-					memory.store();
-					extbus1.put(intbus1.get());
-					memory.store();
-				}
-			}
+			extbus1.put(aux);
+			memory.read();
+			memory.store();
+			extbus1.put(intbus1.get());
+			memory.store();
 		}
-		
 		setStatusFlags(extbus1.get());
 		PC.internalRead(); //we need to make PC points to the next instruction address
 		ula.internalStore(1);
@@ -641,32 +715,10 @@ public class Architecture {
 		IR.internalRead();
 		ula.internalStore(1);
 		registersInternalRead();
-		if(intbus1.get()>0) {
-			for (int i = intbus1.get(); i>1; i--) {
-				ula.internalStore(0);
-				ula.add();
-			}
-			ula.read(1);
-			registersInternalStore();
-		}else {
-			if(intbus1.get()<0) {
-				for (int i = intbus1.get(); i<1; i++) {
-					ula.read(1);
-					ula.store(0);
-					ula.internalStore(1);
-					ula.sub();
-				}
-				ula.read(1);
-				registersInternalStore();
-			
-			}else {
-				if(intbus1.get()==0) {
-					registersInternalStore();
-				}
-			}
-		}
-		
-		
+		ula.store(0); //the multiplier (the register) is in reg1 and the multiplicand in reg2
+		ula.mul();
+		ula.read(1);
+		registersInternalStore();
 		setStatusFlags(intbus1.get());
 		PC.internalRead(); //we need to make PC points to the next instruction address
 		ula.internalStore(1);
@@ -1168,7 +1220,7 @@ public class Architecture {
 
 	/**
 	 * This method reads an entire file in machine code and
-	 * stores it into the memory
+	 * stores it into the memory (at once, without the bus)
 	 * NOT TESTED
 	 * @param filename
 	 * @throws IOException 
@@ -1178,26 +1230,160 @@ public class Architecture {
 		   FileReader(filename+".dxf"));
 		   String linha;
 		   int i=0;
+		   int image[] = new int[Math.min(memorySize, 1024)];
 		   while ((linha = br.readLine()) != null) {
-			     extbus1.put(i);
-			     memory.store();
-			   	 extbus1.put(Integer.parseInt(linha));
-			     memory.store();
+			     if (i == memorySize) {
+			    	 br.close();
+			    	 throw new IOException(filename+".dxf has more words than the "+memorySize+" positions of the memory");
+			     }
+			     if (i == image.length) //the image grows until the memory size
+			    	 image = Arrays.copyOf(image, (int) Math.min(memorySize, 2L*i+1));
+			     image[i] = Integer.parseInt(linha);
 			     i++;
 			}
 			br.close();
+			memory.load(0, image, 0, i); //a single copy into the memory
+			loaded(i);
+	}
+
+	/**
+	 * This method reads a binary executable file (see BinaryExecutable) and
+	 * copies its sections into the memory at once. PC is set to the entry point.
+	 * Large files are mapped, so the loading has no parsing and no extra copy
+	 * @param filename
+	 * @throws IOException if the file is not a binary executable for this memory
+	 */
+	public void readBinaryExec(String filename) throws IOException {
+		try (FileChannel channel = FileChannel.open(Paths.get(filename+".dxb"))) {
+			if (channel.size() >= MAP_THRESHOLD)
+				loadBinary(BinaryExecutable.map(channel));
+			else
+				loadBinary(BinaryExecutable.read(channel));
+		}
+	}
+
+	private void loadBinary(BinaryExecutable executable) throws IOException {
+		if (executable.getMemorySize() != memorySize)
+			throw new IOException("the executable was made for a memory with "+executable.getMemorySize()+" positions");
+		IntBuffer code = executable.getCode();
+		int length = code.remaining();
+		memory.load(0, code);
+		memory.load(executable.getDataAddress(), executable.getData());
+		PC.setData(executable.getEntry());
+		loaded(length);
+	}
+
+	/**
+	 * This method stores an executable image (as made by Assembler.makeExecutable) into the memory,
+	 * followed by the -1 flag, as readExec does with the .dxf.
+	 * The words are stored directly, without the bus transfers of readExec
+	 * @param image
+	 */
+	public void loadImage(int image[]) {
+		if (image.length >= memorySize)
+			throw new IllegalArgumentException("the image has "+image.length+" words, but the memory has "+memorySize+" positions");
+		memory.load(0, image, 0, image.length);
+		memory.storeDirect(image.length, -1); //-1 is a flag indicating that the program is finished
+		loaded(image.length+1);
+	}
+
+	/**
+	 * This method prepares the execution of the image just stored in the memory
+	 * @param length the amount of words in the image
+	 */
+	private void loaded(int length) {
+		if (fast)
+			engine.predecode(length);
+		precompiled = null;
+		if ((memory.hasDataList())&&(!precompiledPrograms.isEmpty())) //the precompiled programs run over the data list
+			precompiled = precompiledPrograms.get(PrecompiledProgram.imageHash(memory.getDataList(), length, memorySize));
+	}
+
+	/**
+	 * This method keeps a precompiled program. It is used when an executable with the same image is read
+	 * @param program
+	 */
+	public void addPrecompiled(PrecompiledProgram program) {
+		precompiledPrograms.put(program.getImageHash(), program);
+	}
+
+	/**
+	 * This method loads the class assembler.Translator generated from the executable file.
+	 * The class file is searched in the directory of the executable
+	 * @param filename the executable file name without the extension
+	 * @return the precompiled program
+	 * @throws IOException if the class can't be loaded
+	 */
+	public PrecompiledProgram loadPrecompiled(String filename) throws IOException {
+		URL directory = new File(filename).getAbsoluteFile().getParentFile().toURI().toURL();
+		try (URLClassLoader loader = new URLClassLoader(new URL[] {directory}, PrecompiledProgram.class.getClassLoader())) {
+			//the generated class is a single one, so the loader can be closed once it is loaded
+			PrecompiledProgram program = (PrecompiledProgram) loader.loadClass(PrecompiledProgram.className(filename))
+					.getDeclaredConstructor().newInstance();
+			addPrecompiled(program);
+			return program;
+		} catch (ReflectiveOperationException | ClassCastException e) {
+			throw new IOException("the precompiled program of "+filename+".dxf can't be loaded", e);
+		}
+	}
+
+	/**
+	 * This method runs the precompiled program over the registers and the memory data.
+	 * @param program
+	 * @return true if the program finished. If not, the architecture must continue from the PC
+	 */
+	private boolean runPrecompiled(PrecompiledProgram program) {
+		int regs[] = new int[FunctionalEngine.FLAGS+1];
+		FunctionalEngine.readRegisters(registersList, regs);
+		boolean finished = program.run(regs, memory.getDataList());
+		FunctionalEngine.writeRegisters(registersList, regs);
+		return finished;
 	}
 	
 	/**
 	 * This method executes a program that is stored in the memory
 	 */
 	public void controlUnitEexec() {
+		controlUnitEexec(Long.MAX_VALUE);
+	}
+	
+	/**
+	 * This method executes a program that is stored in the memory, stopping after
+	 * budget instructions if the end flag is not found before.
+	 * Precompiled programs and compiled blocks can't be stopped, so they are used only when there is no budget (Long.MAX_VALUE)
+	 * @param budget
+	 * @return true if the program finished, false if the budget ran out
+	 */
+	public boolean controlUnitEexec(long budget) {
+		executed = 0;
+		if ((precompiled != null) && !simulation && (budget == Long.MAX_VALUE)) {
+			PrecompiledProgram program = precompiled;
+			precompiled = null; //the program can be changed by this execution
+			if (runPrecompiled(program))
+				return true;
+		}
+		if (fast && !simulation) {
+			boolean finished = engine.run(budget);
+			executed = engine.getExecuted();
+			return finished;
+		}
 		halt = false;
-		while (!halt) {
+		while ((!halt)&&(executed < budget)) {
 			fetch();
 			decodeExecute();
+			if (!halt)
+				executed++;
 		}
-
+		return halt;
+	}
+	
+	/**
+	 * This method returns the amount of instructions executed by the last controlUnitEexec.
+	 * The instructions executed by a precompiled program are not counted
+	 * @return
+	 */
+	public long getExecuted() {
+		return executed;
 	}
 	
 
@@ -1211,96 +1397,47 @@ public class Architecture {
 		IR.internalRead(); //the instruction is in the internalbus2
 		int command = intbus2.get();
 		simulationDecodeExecuteBefore(command);
-		switch (command) {
-		case 0:
-			addRegReg();
-			break;
-		case 1:
-			addMemReg();
-			break;
-		case 2:
-			addRegMem();
-			break;
-		case 3:
-			addImmMem();
-			break;
-		case 4:
-			subRegReg();
-			break;
-		case 5:
-			subMemReg();
-			break;
-		case 6:
-			subRegMem();
-			break;
-		case 7:
-			subImmMem();
-			break;
-		case 8:
-			imulMemReg();
-			break;
-		case 9:
-			imulRegMem();
-			break;
-		case 10:
-			imulRegReg();
-			break;
-		case 11:
-			moveMemReg();
-			break;
-		case 12:
-			moveRegMem();
-			break;
-		case 13:
-			moveRegReg();
-			break;
-		case 14:
-			moveImmReg();
-			break;
-		case 15:
-			incReg();
-			break;
-		case 16:
-			incMem();
-			break;
-		case 17:
-			jmp();
-			break;
-		case 18:
-			jn();
-			break;
-		case 19:
-			jz();
-			break;
-		case 20:
-			jnz();
-			break;
-		case 21:
-			jeq();
-			break;
-		case 22:
-			jgt();
-			break;
-		case 23:
-			jlw();
-			break;
-		case 24:
-			ldi();
-			break;
-		case 25:
-			read();
-			break;
-		case 26:
-			store();
-			break;
-		default:
-			halt = true;
-			break;
-		}
+		execute(command);
 		if (simulation)
 			simulationDecodeExecuteAfter();
 	}
 
+	/**
+	 * This method executes the microprogram of the command.
+	 * Unknown commands (as -1) stop the execution
+	 * @param command
+	 */
+	void execute(int command) {
+		if ((command >= 0)&&(command < opcodes.length))
+			opcodes[command].getHandler().run();
+		else
+			halt = true;
+	}
+
+	/**
+	 * This method builds the descriptors of the commands, taking the names and operands from the Isa
+	 * @param handlers the microprograms, indexed by the command number
+	 * @return
+	 */
+	private static OpcodeDescriptor[] describe(Runnable handlers[]) {
+		OpcodeDescriptor opcodes[] = new OpcodeDescriptor[Isa.getCommandsCount()];
+		for (int i=0;i<opcodes.length;i++) {
+			opcodes[i] = new OpcodeDescriptor(Isa.getCommandName(i), Isa.getOperands(i), handlers[i]);
+		}
+		return opcodes;
+	}
+
+	/**
+	 * This method returns the descriptor of the command
+	 * @param command
+	 * @return the descriptor or null if the command doesn't exist (as the end flag -1)
+	 */
+	public OpcodeDescriptor getOpcode(int command) {
+		if ((command >= 0)&&(command < opcodes.length))
+			return opcodes[command];
+		return null;
+	}
+
 
 	/**
 	 * This method is used to show the components status in simulation conditions
@@ -1314,18 +1451,19 @@ public class Architecture {
 		for (Register r:registersList) {
 			System.out.println(r.getRegisterName()+": "+r.getData());
 		}
-		if (command !=-1)
-			instruction = commandsList.get(command);
+		OpcodeDescriptor opcode = getOpcode(command);
+		if (opcode != null)
+			instruction = opcode.getName();
 		else
 			instruction = "END";
-		if (hasOperands(instruction)) {
-			parameter = memory.getDataList()[PC.getData()+1];
+		if (hasOperands(command)) {
+			parameter = memory.readDirect(PC.getData()+1);
 			System.out.println("Instruction: "+instruction+" "+parameter);
 		}
 		else
 			System.out.println("Instruction: "+instruction);
-		if ("read".equals(instruction))
-			System.out.println("memory["+parameter+"]="+memory.getDataList()[parameter]);
+		if (command == 25) //read
+			System.out.println("memory["+parameter+"]="+memory.readDirect(parameter));
 		
 	}
 
@@ -1376,14 +1514,12 @@ public class Architecture {
 	 * This method is used to show in a correct way the operands (if there is any) of instruction,
 	 * when in simulation mode
 	 * NOT TESTED!!!!!
-	 * @param instruction 
+	 * @param command 
 	 * @return
 	 */
-	private boolean hasOperands(String instruction) {
-		if ("inc".equals(instruction)) //inc is the only one instruction having no operands
-			return false;
-		else
-			return true;
+	private boolean hasOperands(int command) {
+		OpcodeDescriptor opcode = getOpcode(command);
+		return (opcode != null)&&(opcode.getOperandsCount() > 0); //the end of the program has no operands
 	}
 
 	/**
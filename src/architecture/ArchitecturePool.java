@@ -0,0 +1,71 @@
+package architecture;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class keeps architectures to be used again, so running a lot of short programs
+ * doesn't create all the components for each one.
+ * It can be used by many threads at the same time. Each architecture acquired must be used
+ * by a single thread until it is released
+ */
+public class ArchitecturePool {
+
+	private final boolean fast;
+	private final int memorySize;
+	private final boolean offHeap;
+	private final int maxIdle; //the most architectures kept in the pool
+	private final ConcurrentLinkedQueue<Architecture> idle;
+	private final AtomicInteger idleCount;
+
+	/**
+	 * @param fast true if the architectures use the functional engine
+	 * @param memorySize
+	 * @param offHeap
+	 * @param maxIdle the most architectures kept while they are not used
+	 */
+	public ArchitecturePool(boolean fast, int memorySize, boolean offHeap, int maxIdle) {
+		this.fast = fast;
+		this.memorySize = memorySize;
+		this.offHeap = offHeap;
+		this.maxIdle = maxIdle;
+		idle = new ConcurrentLinkedQueue<>();
+		idleCount = new AtomicInteger();
+	}
+
+	/**
+	 * This method returns an architecture in the state it is when created: a released one or a new one
+	 * @return
+	 */
+	public Architecture acquire() {
+		Architecture arch = idle.poll();
+		if (arch == null)
+			return new Architecture(false, fast, memorySize, offHeap);
+		idleCount.decrementAndGet();
+		return arch;
+	}
+
+	/**
+	 * This method gives back an architecture acquired. It is reset now, so the next acquire is fast.
+	 * If the pool is full, the architecture is discarded
+	 * @param arch
+	 */
+	public void release(Architecture arch) {
+		if (arch.getMemorySize() != memorySize)
+			throw new IllegalArgumentException("the architecture wasn't created by this pool");
+		if (idleCount.incrementAndGet() > maxIdle) {
+			idleCount.decrementAndGet();
+			return;
+		}
+		arch.reset();
+		idle.offer(arch);
+	}
+
+	/**
+	 * @return the amount of architectures in the pool, waiting to be acquired
+	 */
+	public int getIdleCount() {
+		return idleCount.get();
+	}
+
+}
@@ -0,0 +1,315 @@
+package architecture;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import components.Memory;
+import components.Register;
+
+/**
+ * This class executes a lot of executables (.dxf files) at the same time: each program is executed
+ * by its own architecture, in a thread of the executor. The architectures share nothing, so the
+ * programs are spread over all the cores. The architectures come from a pool, so they are
+ * created once for each thread, not for each program.
+ * Each program executes at most budget instructions, so a program that never stops doesn't stop the batch.
+ * The results (the registers and a summary of the memory when the program stops) are written
+ * into a results file, a line for each program, in the order the programs were given
+ */
+public class BatchRunner {
+
+	private final ExecutorService executor;
+	private final ArchitecturePool pool;
+	private final long budget;
+
+	/**
+	 * @param executor the threads executing the programs
+	 * @param pool the architectures used by the threads
+	 * @param budget the most instructions executed by each program
+	 */
+	public BatchRunner(ExecutorService executor, ArchitecturePool pool, long budget) {
+		this.executor = executor;
+		this.pool = pool;
+		this.budget = budget;
+	}
+
+	/**
+	 * This class keeps the state of an architecture when its program stopped
+	 */
+	public static class Result {
+
+		private final String program;
+		private final String error; //null if the program was executed
+		private final boolean finished;
+		private final long executed;
+		private final String registersNames[];
+		private final int registers[];
+		private final int memoryEnd;
+		private final int memoryNotZero;
+		private final int memoryHash;
+
+		/**
+		 * This constructor is used when the program couldn't be loaded or executed
+		 * @param program
+		 * @param error
+		 */
+		Result(String program, String error) {
+			this(program, error, false, 0, new String[0], new int[0], 0, 0, 0);
+		}
+
+		Result(String program, String error, boolean finished, long executed, String registersNames[], int registers[],
+				int memoryEnd, int memoryNotZero, int memoryHash) {
+			this.program = program;
+			this.error = error;
+			this.finished = finished;
+			this.executed = executed;
+			this.registersNames = registersNames;
+			this.registers = registers;
+			this.memoryEnd = memoryEnd;
+			this.memoryNotZero = memoryNotZero;
+			this.memoryHash = memoryHash;
+		}
+
+		public String getProgram() {
+			return program;
+		}
+
+		/**
+		 * @return the message of the error, or null if the program was executed
+		 */
+		public String getError() {
+			return error;
+		}
+
+		/**
+		 * @return true if the end flag was found, false if the budget ran out
+		 */
+		public boolean isFinished() {
+			return finished;
+		}
+
+		public long getExecuted() {
+			return executed;
+		}
+
+		/**
+		 * @param id the register id (see Isa). The flags are packed as in the FunctionalEngine
+		 * @return
+		 */
+		public int getRegister(int id) {
+			return registers[id];
+		}
+
+		/**
+		 * @return the position after the last one stored (all the positions from there on are 0)
+		 */
+		public int getMemoryEnd() {
+			return memoryEnd;
+		}
+
+		/**
+		 * @return the amount of positions not storing 0
+		 */
+		public int getMemoryNotZero() {
+			return memoryNotZero;
+		}
+
+		/**
+		 * @return the hash of the words stored from the position 0 to the memory end (as Arrays.hashCode)
+		 */
+		public int getMemoryHash() {
+			return memoryHash;
+		}
+
+		/**
+		 * This method returns the line written into the results file
+		 */
+		@Override
+		public String toString() {
+			if (error != null)
+				return program+" error "+error;
+			StringBuilder line = new StringBuilder(program);
+			line.append(finished ? " finished " : " stopped ").append(executed);
+			for (int i=0;i<registers.length;i++) {
+				line.append(' ').append(registersNames[i]).append('=').append(registers[i]);
+			}
+			line.append(" memory=").append(memoryEnd).append(" notZero=").append(memoryNotZero);
+			line.append(" hash=").append(Integer.toHexString(memoryHash));
+			return line.toString();
+		}
+
+	}
+
+	/**
+	 * This method executes all the programs, spread over the executor threads
+	 * @param programs the executables names (without the .dxf)
+	 * @return the results, in the same order of the programs
+	 * @throws InterruptedException
+	 */
+	public List<Result> run(List<String> programs) throws InterruptedException {
+		List<Future<Result>> futures = submit(programs);
+		ArrayList<Result> results = new ArrayList<Result>(programs.size());
+		for (int i=0;i<futures.size();i++) {
+			results.add(get(programs.get(i), futures.get(i)));
+		}
+		return results;
+	}
+
+	/**
+	 * This method executes all the executables in the directory and writes the results file.
+	 * Each line is written as soon as its program (and all the ones before it) stopped
+	 * @param directory
+	 * @param resultsFile
+	 * @return the amount of programs executed
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public int run(String directory, String resultsFile) throws IOException, InterruptedException {
+		List<String> programs = findPrograms(directory);
+		List<Future<Result>> futures = submit(programs);
+		BufferedWriter writer = new BufferedWriter(new FileWriter(resultsFile));
+		try {
+			for (int i=0;i<futures.size();i++) {
+				writer.write(get(programs.get(i), futures.get(i)).toString());
+				writer.newLine();
+			}
+		}
+		finally {
+			writer.close();
+		}
+		return programs.size();
+	}
+
+	/**
+	 * This method gives all the programs to the executor
+	 * @param programs
+	 * @return
+	 */
+	private List<Future<Result>> submit(List<String> programs) {
+		ArrayList<Future<Result>> futures = new ArrayList<Future<Result>>(programs.size());
+		for (String program:programs) {
+			futures.add(executor.submit(() -> execute(program)));
+		}
+		return futures;
+	}
+
+	/**
+	 * This method waits for the result of a program
+	 * @param program
+	 * @param future
+	 * @return
+	 * @throws InterruptedException
+	 */
+	private static Result get(String program, Future<Result> future) throws InterruptedException {
+		try {
+			return future.get();
+		}
+		catch (ExecutionException e) { //execute catches the exceptions, so only errors get here
+			return new Result(program, e.getCause().toString());
+		}
+	}
+
+	/**
+	 * This method executes a single program in an architecture of the pool
+	 * @param program the executable name (without the .dxf)
+	 * @return
+	 */
+	public Result execute(String program) {
+		Architecture arch = pool.acquire();
+		try {
+			arch.readExec(program);
+			boolean finished = arch.controlUnitEexec(budget);
+			return summary(program, arch, finished);
+		}
+		catch (IOException|RuntimeException e) {
+			return new Result(program, e.toString());
+		}
+		finally {
+			pool.release(arch);
+		}
+	}
+
+	/**
+	 * This method takes the registers and a summary of the memory of the architecture
+	 * (see SimulationService too)
+	 * @param program
+	 * @param arch
+	 * @param finished
+	 * @return
+	 */
+	static Result summary(String program, Architecture arch, boolean finished) {
+		ArrayList<Register> registersList = arch.getRegistersList();
+		int registers[] = new int[FunctionalEngine.FLAGS+1];
+		FunctionalEngine.readRegisters(registersList, registers);
+		String names[] = new String[registers.length];
+		for (int i=0;i<names.length;i++) {
+			names[i] = registersList.get(i).getRegisterName();
+		}
+		Memory memory = arch.getMemory();
+		int end = memory.getStoredEnd();
+		int words[] = new int[Memory.PAGE_SIZE];
+		int notZero = 0;
+		int hash = 1;
+		for (int position=0;position<end;position+=words.length) { //a page at a time
+			int length = Math.min(words.length, end-position);
+			memory.copyOut(position, words, 0, length);
+			for (int i=0;i<length;i++) {
+				if (words[i] != 0)
+					notZero++;
+				hash = 31*hash + words[i];
+			}
+		}
+		return new Result(program, null, finished, arch.getExecuted(), names, registers, end, notZero, hash);
+	}
+
+	/**
+	 * This method finds the executables in the directory, sorted by name
+	 * @param directory
+	 * @return their names, with the directory and without the .dxf
+	 * @throws IOException
+	 */
+	public static List<String> findPrograms(String directory) throws IOException {
+		File files[] = new File(directory).listFiles((dir, name) -> name.endsWith(".dxf"));
+		if (files == null)
+			throw new IOException(directory+" isn't a directory");
+		Arrays.sort(files);
+		ArrayList<String> programs = new ArrayList<String>(files.length);
+		for (File file:files) {
+			String path = file.getPath();
+			programs.add(path.substring(0, path.length()-".dxf".length()));
+		}
+		return programs;
+	}
+
+	/**
+	 * usage: BatchRunner directory [results file] [threads] [budget]
+	 * @param args
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		String directory = args[0];
+		String resultsFile = (args.length > 1) ? args[1] : "results.txt";
+		int threads = (args.length > 2) ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+		long budget = (args.length > 3) ? Long.parseLong(args[3]) : 1000000;
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			BatchRunner runner = new BatchRunner(executor, new ArchitecturePool(true, Isa.MEMORY_SIZE, false, threads), budget);
+			long start = System.nanoTime();
+			int count = runner.run(directory, resultsFile);
+			System.out.println(count+" programs executed in "+(System.nanoTime()-start)/1000000+" ms");
+		}
+		finally {
+			executor.shutdown();
+		}
+	}
+
+}
@@ -0,0 +1,151 @@
+package architecture;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * This class is the binary executable file (.dxb), an alternative to the text one (.dxf).
+ * All the values are little-endian ints:
+ * 		magic, version, entry point, memory size,
+ * 		code length, data address, data length,
+ * 		the code words (stored from the position 0, with the -1 flag in the end),
+ * 		the data words (stored from the data address)
+ * The words can be copied into the memory at once, without parsing anything.
+ * Large files can be mapped instead of read (see map): the words are copied from the page cache
+ */
+public class BinaryExecutable {
+
+	public static final int MAGIC = 0x5843414F; //"OACX" in the file
+	public static final int VERSION = 1;
+	public static final int HEADER_SIZE = 7*Integer.BYTES;
+
+	private int entry;
+	private int memorySize;
+	private int codeLength;
+	private int dataAddress;
+	private int dataLength;
+	private ByteBuffer words; //the code and the data sections
+
+	private BinaryExecutable(ByteBuffer header) throws IOException {
+		header.order(ByteOrder.LITTLE_ENDIAN);
+		if (header.getInt() != MAGIC)
+			throw new IOException("this is not a binary executable");
+		int version = header.getInt();
+		if (version != VERSION)
+			throw new IOException("the binary executable version "+version+" is not supported");
+		entry = header.getInt();
+		memorySize = header.getInt();
+		codeLength = header.getInt();
+		dataAddress = header.getInt();
+		dataLength = header.getInt();
+		if ((codeLength < 0)||(dataLength < 0)||(codeLength > memorySize)||(dataAddress < 0)||(dataLength > memorySize-dataAddress))
+			throw new IOException("the binary executable sections don't fit in its memory");
+	}
+
+	/**
+	 * This method reads the executable from the channel
+	 * @param channel
+	 * @return
+	 * @throws IOException if the file is not a binary executable or it is truncated
+	 */
+	public static BinaryExecutable read(FileChannel channel) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		readFully(channel, header);
+		BinaryExecutable executable = new BinaryExecutable(header);
+		long length = ((long) executable.codeLength+executable.dataLength)*Integer.BYTES;
+		if (channel.size()-HEADER_SIZE < length) //checked before allocating the sections
+			throw new IOException("the binary executable is truncated");
+		if (length > Integer.MAX_VALUE)
+			throw new IOException("the binary executable is too large to be read");
+		executable.words = ByteBuffer.allocate((int) length);
+		readFully(channel, executable.words);
+		executable.words.order(ByteOrder.LITTLE_ENDIAN);
+		return executable;
+	}
+
+	/**
+	 * This method maps the executable in the channel, instead of reading it.
+	 * No word is read until the sections are copied into the memory
+	 * @param channel
+	 * @return
+	 * @throws IOException if the file is not a binary executable or it is truncated
+	 */
+	public static BinaryExecutable map(FileChannel channel) throws IOException {
+		long size = channel.size();
+		if (size < HEADER_SIZE)
+			throw new IOException("the binary executable is truncated");
+		ByteBuffer file = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+		ByteBuffer header = file.duplicate();
+		header.limit(HEADER_SIZE);
+		BinaryExecutable executable = new BinaryExecutable(header);
+		long length = ((long) executable.codeLength+executable.dataLength)*Integer.BYTES;
+		if (size < HEADER_SIZE+length)
+			throw new IOException("the binary executable is truncated");
+		file.position(HEADER_SIZE);
+		file.limit((int) (HEADER_SIZE+length));
+		executable.words = file.slice().order(ByteOrder.LITTLE_ENDIAN);
+		return executable;
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer) < 0)
+				throw new IOException("the binary executable is truncated");
+		}
+		buffer.flip();
+	}
+
+	/**
+	 * This method writes an executable into the channel
+	 * @param channel
+	 * @param entry the first instruction
+	 * @param memorySize the memory size the program was assembled to
+	 * @param code the words stored from the position 0
+	 * @param dataAddress
+	 * @param data the words stored from the data address
+	 * @throws IOException
+	 */
+	public static void write(FileChannel channel, int entry, int memorySize, int code[], int dataAddress, int data[]) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE+(code.length+data.length)*Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putInt(MAGIC).putInt(VERSION).putInt(entry).putInt(memorySize);
+		buffer.putInt(code.length).putInt(dataAddress).putInt(data.length);
+		buffer.asIntBuffer().put(code).put(data);
+		buffer.clear();
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+	}
+
+	public int getEntry() {
+		return entry;
+	}
+
+	public int getMemorySize() {
+		return memorySize;
+	}
+
+	public int getDataAddress() {
+		return dataAddress;
+	}
+
+	/**
+	 * @return the code words, to be copied into the memory
+	 */
+	public IntBuffer getCode() {
+		ByteBuffer code = words.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		code.limit(codeLength*Integer.BYTES);
+		return code.asIntBuffer();
+	}
+
+	/**
+	 * @return the data words, to be copied into the memory from the data address
+	 */
+	public IntBuffer getData() {
+		ByteBuffer data = words.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		data.position(codeLength*Integer.BYTES);
+		return data.slice().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+	}
+
+}
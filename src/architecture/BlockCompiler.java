@@ -0,0 +1,213 @@
+package architecture;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.net.URI;
+import java.util.Arrays;
+
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+/**
+ * This class turns a basic block of the program into a java class implementing CompiledBlock.
+ * The block starts in any address and goes until the first jump (included).
+ * Instructions the FunctionalEngine delegates to the microprograms, imulRegMem and the end of the
+ * program are left to the engine, so the block stops just before them.
+ * The class is compiled in memory and defined as a hidden class, so it can be discarded
+ * when the program changes.
+ */
+public class BlockCompiler {
+
+	private static final int MAX_INSTRUCTIONS = 100; //longer blocks are split
+	private static final int MAX_LOOPS = 10000; //a block looping more times gives the control back to the engine
+
+	private JavaCompiler javac;
+	private MethodHandles.Lookup lookup;
+	private int blocksCompiled; //used to give a different name to each class
+
+	public BlockCompiler() {
+		javac = ToolProvider.getSystemJavaCompiler();
+		lookup = MethodHandles.lookup();
+	}
+
+	/**
+	 * This method returns false when the java compiler can't be found (running in a JRE, for instance)
+	 * @return
+	 */
+	public boolean isAvailable() {
+		return javac != null;
+	}
+
+	/**
+	 * This method compiles the block starting in the address
+	 * @param program
+	 * @param start
+	 * @return the compiled block or null if the block can't be compiled
+	 */
+	public synchronized CompiledBlock compile(DecodedProgram program, int start) {
+		if (javac == null)
+			return null;
+		String name = "Block" + start + "_" + blocksCompiled++;
+		String source = generate(program, start, name);
+		if (source == null)
+			return null;
+		byte bytecode[] = compileSource(name, source);
+		if (bytecode == null)
+			return null;
+		try {
+			MethodHandles.Lookup block = lookup.defineHiddenClass(bytecode, true);
+			return (CompiledBlock) block.findConstructor(block.lookupClass(), MethodType.methodType(void.class)).invoke();
+		} catch (Throwable e) {
+			return null;
+		}
+	}
+
+	/**
+	 * This method generates the java source of the block
+	 * @param program
+	 * @param start
+	 * @param name the class name
+	 * @return the source or null if the first instruction can't be compiled
+	 */
+	protected String generate(DecodedProgram program, int start, String name) {
+		StringBuilder body = new StringBuilder();
+		BlockWriter writer = new BlockWriter(start);
+		int pc = start;
+		int count = 0;
+		boolean jump = false;
+		while ((!jump)&&(count < MAX_INSTRUCTIONS)) {
+			DecodedInstruction instruction = program.get(pc);
+			if (!isCompilable(instruction))
+				break;
+			body.append("\t\t\t//").append(pc).append(": command ").append(instruction.command).append("\n");
+			jump = writer.translate(body, instruction, pc);
+			pc = instruction.nextPC;
+			count++;
+		}
+		if (count == 0)
+			return null;
+		if (!jump) //the block stops just before an instruction left to the engine
+			writer.exit(body, Integer.toString(pc), false);
+		StringBuilder source = new StringBuilder();
+		source.append("package architecture;\n\n");
+		source.append("import components.Memory;\n\n");
+		source.append("public class ").append(name).append(" implements CompiledBlock {\n\n");
+		source.append("\tpublic int getStart() {\n\t\treturn ").append(start).append(";\n\t}\n\n");
+		source.append("\tpublic int getEnd() {\n\t\treturn ").append(pc).append(";\n\t}\n\n");
+		source.append("\tpublic int getStoresEnd() {\n\t\treturn ").append(writer.storesEnd).append(";\n\t}\n\n");
+		source.append("\tpublic boolean execute(int regs[], Memory memory) {\n");
+		source.append("\t\tint r0 = regs[0], r1 = regs[1], r2 = regs[2], r3 = regs[3];\n");
+		source.append("\t\tint ir = regs[5], flags = regs[6];\n");
+		source.append("\t\tint x, result;\n");
+		source.append("\t\tint loops = 0;\n");
+		source.append("\t\twhile (true) {\n");
+		source.append(body);
+		source.append("\t\t}\n\t}\n}\n");
+		return source.toString();
+	}
+
+	/**
+	 * This method returns true if the instruction can be part of a compiled block
+	 * @param instruction
+	 * @return
+	 */
+	private boolean isCompilable(DecodedInstruction instruction) {
+		return DecodedProgram.isCommand(instruction.command)&&(instruction.direct)&&(instruction.command != 9);
+	}
+
+	/**
+	 * This class writes the instructions of a block. The memory is accessed by the Memory object
+	 */
+	private static class BlockWriter extends InstructionWriter {
+
+		private int start; //jumps to the block start are loops inside the block
+		private int storesEnd; //the position after the last one stored
+
+		public BlockWriter(int start) {
+			this.start = start;
+		}
+
+		@Override
+		protected String read(int position) {
+			return "memory.readDirect(" + position + ")";
+		}
+
+		/**
+		 * If the position is used by the program, the engine must execute the store,
+		 * once the program (and this block) will be changed
+		 */
+		@Override
+		protected void store(StringBuilder out, int position, String value, int pc) {
+			storesEnd = Math.max(storesEnd, position+1);
+			line(out, "if (memory.isCode(" + position + ")) {");
+			exit(out, Integer.toString(pc), false);
+			line(out, "}");
+			line(out, "memory.storeDirect(" + position + ", " + value + ");");
+		}
+
+		@Override
+		protected void jump(StringBuilder out, String condition, int target, int nextPC) {
+			if (target == start) { //the loop is stopped after MAX_LOOPS, so the engine is never blocked
+				line(out, "if (" + condition + ") {");
+				line(out, "if (++loops < " + MAX_LOOPS + ") continue;");
+				exit(out, Integer.toString(start), true);
+				line(out, "}");
+				exit(out, Integer.toString(nextPC), true);
+			}
+			else {
+				exit(out, "(" + condition + ") ? " + target + " : " + nextPC, true);
+			}
+		}
+
+	}
+
+	/**
+	 * This method compiles the source in memory. The file manager is closed when the compilation finishes
+	 * @param name
+	 * @param source
+	 * @return the class bytecode or null if the compilation fails
+	 */
+	private byte[] compileSource(String name, final String source) {
+		JavaFileObject sourceFile = new SimpleJavaFileObject(URI.create("string:///architecture/" + name + ".java"), JavaFileObject.Kind.SOURCE) {
+			@Override
+			public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+				return source;
+			}
+		};
+		final ByteArrayOutputStream bytecode = new ByteArrayOutputStream();
+		StandardJavaFileManager fileManager = javac.getStandardFileManager(null, null, null);
+		JavaFileManager memoryManager = new ForwardingJavaFileManager<JavaFileManager>(fileManager) {
+			@Override
+			public JavaFileObject getJavaFileForOutput(Location location, String className, JavaFileObject.Kind kind, FileObject sibling) {
+				return new SimpleJavaFileObject(URI.create("bytes:///" + className.replace('.', '/') + ".class"), kind) {
+					@Override
+					public OutputStream openOutputStream() {
+						return bytecode;
+					}
+				};
+			}
+		};
+		try (memoryManager) { //closes the file manager too
+			boolean compiled = javac.getTask(null, memoryManager, new DiagnosticCollector<JavaFileObject>(),
+					Arrays.asList("-classpath", System.getProperty("java.class.path"), "-g:none"),
+					null, Arrays.asList(sourceFile)).call();
+			if (!compiled)
+				return null;
+		}
+		catch (IOException e) { //the file manager couldn't be closed
+			return null;
+		}
+		return bytecode.toByteArray();
+	}
+
+}
@@ -0,0 +1,37 @@
+package architecture;
+
+import components.Memory;
+
+/**
+ * This interface is implemented by the classes the BlockCompiler generates.
+ * Each one executes a basic block of the program as straight-line java code
+ * over the same registers array used by the FunctionalEngine
+ */
+public interface CompiledBlock {
+
+	/**
+	 * This method executes the block, leaving in the registers array the state
+	 * (and PC) the FunctionalEngine would leave
+	 * @param regs
+	 * @param memory
+	 * @return true if the block finished with a jump, false if it stopped in an instruction
+	 * 				that must be executed by the engine
+	 */
+	public boolean execute(int regs[], Memory memory);
+
+	/**
+	 * @return the address of the first instruction of the block
+	 */
+	public int getStart();
+
+	/**
+	 * @return the address just after the last word of the block
+	 */
+	public int getEnd();
+
+	/**
+	 * @return the position just after the last one the block stores into (0 if it stores nothing)
+	 */
+	public int getStoresEnd();
+
+}
@@ -0,0 +1,50 @@
+package architecture;
+
+/**
+ * This class keeps an instruction already decoded: the command, its operands
+ * and the address of the next instruction.
+ * The operands are the words just after the command, in the same order they are in the memory
+ */
+public class DecodedInstruction {
+
+	final int command;
+	final int operand1;
+	final int operand2;
+	final int operand3;
+	final int nextPC; //the address just after the last operand
+	final boolean direct; //false when the instruction must be delegated to the microprogram
+
+	public DecodedInstruction(int command, int operand1, int operand2, int operand3, int nextPC, boolean direct) {
+		this.command = command;
+		this.operand1 = operand1;
+		this.operand2 = operand2;
+		this.operand3 = operand3;
+		this.nextPC = nextPC;
+		this.direct = direct;
+	}
+
+	public int getCommand() {
+		return command;
+	}
+
+	public int getOperand1() {
+		return operand1;
+	}
+
+	public int getOperand2() {
+		return operand2;
+	}
+
+	public int getOperand3() {
+		return operand3;
+	}
+
+	public int getNextPC() {
+		return nextPC;
+	}
+
+	public boolean isDirect() {
+		return direct;
+	}
+
+}
@@ -0,0 +1,151 @@
+package architecture;
+
+import java.util.Arrays;
+
+import components.CodeWatcher;
+import components.Memory;
+
+/**
+ * This class keeps the instructions of the program stored in the memory already decoded,
+ * so the execution engines don't need to fetch and decode the same instruction many times.
+ * The instructions are decoded by the address they start, once a jump can point to any word.
+ * The words used by the decoded instructions are marked as code in the memory, so storing
+ * into them discards only the instructions using that word.
+ */
+public class DecodedProgram implements CodeWatcher {
+
+	private static final int MAX_LENGTH = 4; //the longest instruction: command and 3 operands
+
+	//operands kinds
+	private static final char REG = 'R'; //a register id
+	private static final char MEM = 'M'; //a memory position, read or written by the instruction
+	private static final char IMM = 'I'; //an immediate value
+	private static final char ADDR = 'A'; //a jump target
+
+	private Memory memory;
+	private int size;
+	private DecodedInstruction instructions[][]; //by memory page (see Memory): only the pages with code are allocated
+	private CodeWatcher codeWatcher; //who must know the program was changed (compiled blocks, for instance)
+
+	public DecodedProgram(Memory memory) {
+		this.memory = memory;
+		this.size = memory.getSize();
+		instructions = new DecodedInstruction[(int) (((long) size+Memory.PAGE_SIZE-1)>>>Memory.PAGE_BITS)][];
+		memory.setCodeWatcher(this);
+	}
+
+	/**
+	 * This method decodes the program loaded into the first positions of the memory,
+	 * following the instructions from the address 0 until the end flag (-1)
+	 * @param length the amount of words loaded
+	 */
+	public void predecode(int length) {
+		int pc = 0;
+		while ((pc >= 0)&&(pc < length)) {
+			DecodedInstruction instruction = get(pc);
+			if (!isCommand(instruction.command))
+				break;
+			pc = instruction.nextPC;
+		}
+	}
+
+	/**
+	 * This method returns the instruction starting in the address.
+	 * Instructions not decoded yet are decoded and kept
+	 * @param pc
+	 * @return
+	 */
+	public DecodedInstruction get(int pc) {
+		if ((pc < 0)||(pc >= size))
+			return decode(pc);
+		DecodedInstruction page[] = instructions[pc>>>Memory.PAGE_BITS];
+		if (page == null) {
+			page = new DecodedInstruction[Memory.PAGE_SIZE];
+			instructions[pc>>>Memory.PAGE_BITS] = page;
+		}
+		DecodedInstruction instruction = page[pc & (Memory.PAGE_SIZE-1)];
+		if (instruction == null) {
+			instruction = decode(pc);
+			page[pc & (Memory.PAGE_SIZE-1)] = instruction;
+			int end = Math.min(instruction.nextPC, size);
+			for (int i=pc;i<end;i++) {
+				memory.markCode(i);
+			}
+		}
+		return instruction;
+	}
+
+	/**
+	 * This method decodes the instruction starting in the address.
+	 * As in the memory read, addresses out of the memory range are read as the address itself
+	 * @param pc
+	 * @return
+	 */
+	public DecodedInstruction decode(int pc) {
+		int command = word(pc);
+		if (!isCommand(command))
+			return new DecodedInstruction(command, 0, 0, 0, pc+1, false); //the end of the program uses a single word
+		String operands = Isa.getOperands(command);
+		int operand[] = new int[3];
+		for (int i=0;i<operands.length();i++) {
+			operand[i] = word(pc+1+i);
+		}
+		boolean direct = (pc >= 0)&&(pc+operands.length() < size);
+		for (int i=0;i<operands.length();i++) {
+			char kind = operands.charAt(i);
+			if ((kind == REG)&&((operand[i] < 0)||(operand[i] >= Isa.NUMBER_OF_GPR)))
+				direct = false;
+			if ((kind == MEM)&&((operand[i] < 0)||(operand[i] >= size)))
+				direct = false;
+		}
+		return new DecodedInstruction(command, operand[0], operand[1], operand[2], pc+1+operands.length(), direct);
+	}
+
+	/**
+	 * This method discards the decoded instructions using the position:
+	 * the ones starting in it or in the positions just before it
+	 * @param position
+	 */
+	@Override
+	public void codeChanged(int position) {
+		for (int pc=Math.max(0, position-MAX_LENGTH+1);pc<=position;pc++) {
+			DecodedInstruction page[] = instructions[pc>>>Memory.PAGE_BITS];
+			if ((page != null)&&(page[pc & (Memory.PAGE_SIZE-1)] != null)&&(page[pc & (Memory.PAGE_SIZE-1)].nextPC > position))
+				page[pc & (Memory.PAGE_SIZE-1)] = null;
+		}
+		if (codeWatcher != null)
+			codeWatcher.codeChanged(position);
+	}
+
+	/**
+	 * This method sets who must be told when a position of the program is changed
+	 * @param codeWatcher
+	 */
+	public void setCodeWatcher(CodeWatcher codeWatcher) {
+		this.codeWatcher = codeWatcher;
+	}
+
+	/**
+	 * This method discards all the decoded instructions
+	 */
+	public void invalidate() {
+		Arrays.fill(instructions, null);
+		memory.clearCode();
+	}
+
+	/**
+	 * This method returns true if the number is a known command
+	 * @param command
+	 * @return
+	 */
+	public static boolean isCommand(int command) {
+		return Isa.isCommand(command);
+	}
+
+	private int word(int position) {
+		if ((position < size)&&(position >= 0))
+			return memory.readDirect(position);
+		return position;
+	}
+
+}
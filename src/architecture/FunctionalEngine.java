@@ -0,0 +1,489 @@
+package architecture;
+
+import java.util.ArrayList;
+
+import components.CodeWatcher;
+import components.Memory;
+import components.Register;
+
+/**
+ * This class executes the program stored in the memory directly over an array of registers,
+ * without the bus transfers performed by the microprograms of the Architecture.
+ * The final PC, registers, flags and memory are the same ones the microprograms produce.
+ * Instructions whose operands are not general purpose registers or positions inside the memory
+ * are delegated to the microprograms, so even the odd programs behave the same way.
+ * The instructions are taken from a DecodedProgram, so each one is decoded only once.
+ * Storing into the program words discards only the instructions using them (see Memory.markCode).
+ * When the block compilation is enabled, the engine counts how many times each basic block
+ * (the instructions after a jump) is entered, and the hot ones are compiled by the BlockCompiler.
+ */
+public class FunctionalEngine implements CodeWatcher {
+
+	//the registers array uses the same ids as the architecture registers list
+	public static final int PC = 4;
+	public static final int IR = 5;
+	public static final int FLAGS = 6; //the flags bits are packed: bit 0 zero, bit 1 negative, bit 2 not zero
+	private static final int UNKNOWN = -2; //the scratch position must be searched again
+
+	private Architecture arch;
+	private Memory memory;
+	private ArrayList<Register> registersList;
+	private int size;
+	private int regs[];
+	private boolean halt;
+	private long executed; //the instructions executed by the last run
+	private DecodedProgram program;
+	private int scratch; //the position imulRegMem uses (see scratchPosition), or UNKNOWN
+	
+	private BlockCompiler compiler; //null when the block compilation is disabled
+	private int compileThreshold; //how many times a block is entered before being compiled
+	private boolean blockStart; //true when the next instruction starts a basic block
+	//by memory page (see Memory): only the pages where blocks start are allocated
+	private int blockCounters[][];
+	private CompiledBlock blocks[][];
+	private ArrayList<CompiledBlock> compiledBlocks;
+
+	public FunctionalEngine(Architecture arch) {
+		this.arch = arch;
+		this.memory = arch.getMemory();
+		this.registersList = arch.getRegistersList();
+		this.size = memory.getSize();
+		regs = new int[FLAGS+1];
+	}
+
+	/**
+	 * This method decodes the program just loaded into the memory.
+	 * The decoded instructions are used in the next executions
+	 * @param length the amount of words loaded
+	 */
+	public void predecode(int length) {
+		newProgram();
+		program.predecode(length);
+	}
+
+	/**
+	 * This method enables the compilation of the basic blocks entered more than threshold times.
+	 * If the java compiler is not available, the engine keeps interpreting every block
+	 * @param threshold
+	 */
+	public void enableCompilation(int threshold) {
+		compiler = new BlockCompiler();
+		if (!compiler.isAvailable())
+			compiler = null;
+		compileThreshold = threshold;
+		newBlockTables();
+		if (program != null)
+			program.setCodeWatcher(this);
+	}
+
+	/**
+	 * This method creates the tables of the compiled blocks (and their counters) empty
+	 */
+	private void newBlockTables() {
+		int pages = (int) (((long) size+Memory.PAGE_SIZE-1)>>>Memory.PAGE_BITS);
+		blockCounters = new int[pages][];
+		blocks = new CompiledBlock[pages][];
+		compiledBlocks = new ArrayList<CompiledBlock>();
+	}
+
+	/**
+	 * This method discards the decoded program and the compiled blocks (the memory was cleared).
+	 * The compilation stays enabled
+	 */
+	public void reset() {
+		program = null;
+		if (compiler != null)
+			newBlockTables();
+	}
+
+	/**
+	 * @return the threshold given to enableCompilation, or 0 if the blocks are not compiled
+	 */
+	public int getCompileThreshold() {
+		if (compiler == null)
+			return 0;
+		return compileThreshold;
+	}
+
+	/**
+	 * This method executes the program stored in the memory until the end flag (-1) is found
+	 */
+	public void run() {
+		run(Long.MAX_VALUE);
+	}
+
+	/**
+	 * This method executes the program stored in the memory until the end flag (-1) is found
+	 * or budget instructions are executed. The compiled blocks don't count the instructions they
+	 * execute (and loop inside them), so they are used only when there is no budget (Long.MAX_VALUE)
+	 * @param budget
+	 * @return true if the end flag was found
+	 */
+	public boolean run(long budget) {
+		if (program == null) //no program was loaded by readExec: the instructions are decoded on demand
+			newProgram();
+		loadState();
+		halt = false;
+		blockStart = true;
+		executed = 0;
+		scratch = UNKNOWN; //the memory can be changed between the runs
+		boolean compiled = (compiler != null)&&(budget == Long.MAX_VALUE);
+		while ((!halt)&&(executed < budget)) {
+			if (blockStart && compiled)
+				enterBlock();
+			else {
+				step();
+				if (!halt)
+					executed++;
+			}
+		}
+		storeState();
+		return halt;
+	}
+
+	/**
+	 * @return the amount of instructions executed by the last run (the compiled blocks are not counted)
+	 */
+	public long getExecuted() {
+		return executed;
+	}
+
+	/**
+	 * This method starts a new decoded program. The compiled blocks of the old one are discarded
+	 */
+	private void newProgram() {
+		program = new DecodedProgram(memory);
+		if (compiler != null) {
+			program.setCodeWatcher(this);
+			for (CompiledBlock block:compiledBlocks) {
+				blocks[block.getStart()>>>Memory.PAGE_BITS][block.getStart() & (Memory.PAGE_SIZE-1)] = null;
+			}
+			compiledBlocks.clear();
+		}
+	}
+
+	/**
+	 * This method is used when PC points to the first instruction of a basic block.
+	 * The compiled block is executed (if there is one). Otherwise, the block is counted
+	 * and compiled when it becomes hot
+	 */
+	private void enterBlock() {
+		blockStart = false;
+		int pc = regs[PC];
+		if ((pc < 0)||(pc >= size)||(memory.isStoring()))
+			return;
+		int page = pc>>>Memory.PAGE_BITS;
+		int offset = pc & (Memory.PAGE_SIZE-1);
+		if (blocks[page] == null) {
+			blocks[page] = new CompiledBlock[Memory.PAGE_SIZE];
+			blockCounters[page] = new int[Memory.PAGE_SIZE];
+		}
+		CompiledBlock block = blocks[page][offset];
+		if (block == null) {
+			if (++blockCounters[page][offset] != compileThreshold)
+				return;
+			block = compiler.compile(program, pc);
+			if (block == null)
+				return;
+			blocks[page][offset] = block;
+			compiledBlocks.add(block);
+		}
+		blockStart = block.execute(regs, memory);
+		if (block.getStoresEnd() > scratch) //the block stored into the positions from the scratch one on
+			scratch = UNKNOWN;
+	}
+
+	/**
+	 * This method discards the compiled blocks using the position changed
+	 * @param position
+	 */
+	@Override
+	public void codeChanged(int position) {
+		for (int i=compiledBlocks.size()-1;i>=0;i--) {
+			CompiledBlock block = compiledBlocks.get(i);
+			if ((position >= block.getStart())&&(position < block.getEnd())) {
+				blocks[block.getStart()>>>Memory.PAGE_BITS][block.getStart() & (Memory.PAGE_SIZE-1)] = null;
+				blockCounters[block.getStart()>>>Memory.PAGE_BITS][block.getStart() & (Memory.PAGE_SIZE-1)] = 0;
+				compiledBlocks.remove(i);
+			}
+		}
+	}
+
+	/**
+	 * This method copies the architecture registers and flags into the registers array
+	 */
+	private void loadState() {
+		readRegisters(registersList, regs);
+	}
+
+	/**
+	 * This method copies the registers array back into the architecture registers and flags
+	 */
+	private void storeState() {
+		writeRegisters(registersList, regs);
+	}
+
+	/**
+	 * This method copies the registers and flags into a registers array, packing the flags bits
+	 * @param registersList
+	 * @param regs
+	 */
+	static void readRegisters(ArrayList<Register> registersList, int regs[]) {
+		for (int i=0;i<FLAGS;i++) {
+			regs[i] = registersList.get(i).getData();
+		}
+		Register flags = registersList.get(FLAGS);
+		regs[FLAGS] = flags.getBit(0) | (flags.getBit(1)<<1) | (flags.getBit(2)<<2);
+	}
+
+	/**
+	 * This method copies a registers array back into the registers and flags
+	 * @param registersList
+	 * @param regs
+	 */
+	static void writeRegisters(ArrayList<Register> registersList, int regs[]) {
+		for (int i=0;i<FLAGS;i++) {
+			registersList.get(i).setData(regs[i]);
+		}
+		Register flags = registersList.get(FLAGS);
+		flags.setBit(0, regs[FLAGS] & 1);
+		flags.setBit(1, (regs[FLAGS]>>1) & 1);
+		flags.setBit(2, (regs[FLAGS]>>2) & 1);
+	}
+
+	/**
+	 * This method executes a single instruction: the one PC points to
+	 */
+	private void step() {
+		DecodedInstruction instruction = program.get(regs[PC]);
+		int command = instruction.command;
+		regs[IR] = command;
+		if (!DecodedProgram.isCommand(command)) {
+			halt = true;
+			return;
+		}
+		if ((!instruction.direct)||(memory.isStoring())) { //a store left incomplete by a microprogram must be finished by the microprograms
+			delegate(command);
+			return;
+		}
+		int a = instruction.operand1;
+		int b = instruction.operand2;
+		int x, result;
+		switch (command) {
+		case 0: //addRegReg
+			result = regs[a] + regs[b];
+			setStatusFlags(result);
+			regs[b] = result;
+			break;
+		case 1: //addMemReg
+			x = memory.readDirect(a);
+			regs[IR] = x;
+			result = x + regs[b];
+			setStatusFlags(result);
+			regs[b] = result;
+			break;
+		case 2: //addRegMem
+			result = regs[a] + memory.readDirect(b);
+			setStatusFlags(result);
+			regs[IR] = result;
+			store(b, result);
+			break;
+		case 3: //addImmMem
+			result = a + memory.readDirect(b);
+			setStatusFlags(result);
+			regs[IR] = result;
+			store(b, result);
+			break;
+		case 4: //subRegReg
+			result = regs[a] - regs[b];
+			setStatusFlags(result);
+			regs[b] = result;
+			break;
+		case 5: //subMemReg
+			x = memory.readDirect(a);
+			regs[IR] = x;
+			result = x - regs[b];
+			setStatusFlags(result);
+			regs[b] = result;
+			break;
+		case 6: //subRegMem
+			result = regs[a] - memory.readDirect(b);
+			setStatusFlags(result);
+			regs[IR] = result;
+			store(b, result);
+			break;
+		case 7: //subImmMem
+			result = a - memory.readDirect(b);
+			setStatusFlags(result);
+			regs[IR] = result;
+			store(b, result);
+			break;
+		case 8: //imulMemReg
+			x = memory.readDirect(a);
+			regs[IR] = x;
+			result = x * regs[b];
+			setStatusFlags(result);
+			regs[b] = result;
+			break;
+		case 9: //imulRegMem
+			int aux = scratchPosition();
+			if (aux < 0) { //the microprogram never finds a free position. Let it run
+				delegate(command);
+				return;
+			}
+			store(aux, b); //the microprogram keeps the address in the last free position
+			x = memory.readDirect(b);
+			result = x * regs[a];
+			setStatusFlags(result);
+			if (regs[a] != 0)
+				regs[IR] = result;
+			else
+				regs[IR] = x;
+			store(b, result);
+			break;
+		case 10: //imulRegReg
+			regs[IR] = regs[a];
+			result = regs[a] * regs[b];
+			setStatusFlags(result);
+			regs[b] = result;
+			break;
+		case 11: //moveMemReg
+		case 25: //read
+			x = memory.readDirect(a);
+			regs[IR] = x;
+			regs[b] = x;
+			break;
+		case 12: //moveRegMem
+		case 26: //store
+			store(b, regs[a]);
+			break;
+		case 13: //moveRegReg
+			regs[b] = regs[a];
+			break;
+		case 14: //moveImmReg
+			regs[IR] = a;
+			regs[b] = a;
+			break;
+		case 15: //incReg
+			result = regs[a] + 1;
+			setStatusFlags(result);
+			regs[a] = result;
+			break;
+		case 16: //incMem
+			result = memory.readDirect(a) + 1;
+			setStatusFlags(result);
+			regs[IR] = result;
+			store(a, result);
+			break;
+		case 17: //jmp
+			regs[PC] = a;
+			blockStart = true;
+			return;
+		case 18: //jn
+			jumpIf((regs[FLAGS] & 2) != 0, a, instruction.nextPC);
+			return;
+		case 19: //jz
+			jumpIf((regs[FLAGS] & 1) != 0, a, instruction.nextPC);
+			return;
+		case 20: //jnz
+			jumpIf((regs[FLAGS] & 4) != 0, a, instruction.nextPC);
+			return;
+		case 21: //jeq
+			regs[IR] = regs[a];
+			jumpIf(regs[a] == regs[b], instruction.operand3, instruction.nextPC);
+			return;
+		case 22: //jgt
+			regs[IR] = regs[a];
+			jumpIf(regs[a] > regs[b], instruction.operand3, instruction.nextPC);
+			return;
+		case 23: //jlw
+			regs[IR] = regs[a];
+			jumpIf(regs[a] < regs[b], instruction.operand3, instruction.nextPC);
+			return;
+		case 24: //ldi
+			regs[a] = b;
+			break;
+		}
+		regs[PC] = instruction.nextPC;
+	}
+
+	/**
+	 * This method finds the position imulRegMem uses to keep its address:
+	 * the last position in the memory storing 0.
+	 * The memory is searched once, and then the position is kept up to date by the stores
+	 * @return the position or -1 if there is no one
+	 */
+	private int scratchPosition() {
+		if (scratch == UNKNOWN)
+			scratch = searchScratch(size-1);
+		return scratch;
+	}
+
+	/**
+	 * @param from
+	 * @return the last position storing 0, from the position down, or -1 if there is no one
+	 */
+	private int searchScratch(int from) {
+		int aux = from;
+		while ((aux >= 0)&&(memory.readDirect(aux) != 0)) {
+			aux--;
+		}
+		return aux;
+	}
+
+	/**
+	 * This method stores the data into the memory, keeping the scratch position up to date.
+	 * All the positions after it store something other than 0, so only the stores from there on change it
+	 * @param position
+	 * @param data
+	 */
+	private void store(int position, int data) {
+		memory.storeDirect(position, data);
+		if ((scratch == UNKNOWN)||(position < scratch))
+			return;
+		if (data == 0)
+			scratch = position;
+		else if (position == scratch)
+			scratch = searchScratch(position-1);
+	}
+
+	/**
+	 * This method implements the conditional jumps
+	 * @param condition
+	 * @param target
+	 * @param nextPC
+	 */
+	private void jumpIf(boolean condition, int target, int nextPC) {
+		if (condition)
+			regs[PC] = target;
+		else
+			regs[PC] = nextPC;
+		blockStart = true;
+	}
+
+	/**
+	 * This method sets the flags bits the same way the architecture does
+	 * @param result
+	 */
+	private void setStatusFlags(int result) {
+		if (result == 0)
+			regs[FLAGS] = 1; //zero
+		else if (result < 0)
+			regs[FLAGS] = 6; //negative and not zero
+		else
+			regs[FLAGS] = 4; //not zero
+	}
+
+	/**
+	 * This method executes the command with the architecture microprogram.
+	 * The registers are copied to the architecture before and copied back after it
+	 * @param command
+	 */
+	private void delegate(int command) {
+		storeState();
+		arch.execute(command);
+		loadState();
+		scratch = UNKNOWN; //the microprogram can store anywhere
+	}
+
+}
@@ -0,0 +1,198 @@
+package architecture;
+
+/**
+ * This class writes the java statements doing what a decoded instruction does, the same way
+ * the FunctionalEngine executes it. The registers are the local variables r0 to r3, ir and flags,
+ * and x and result are used as temporaries.
+ * How the memory is accessed and how the jumps are done depends on the generated class,
+ * so they are written by the subclasses (see BlockCompiler and assembler.Translator).
+ */
+public abstract class InstructionWriter {
+
+	/**
+	 * This method returns the expression reading the memory position
+	 * @param position
+	 * @return
+	 */
+	protected abstract String read(int position);
+
+	/**
+	 * This method writes the statements storing the value into the memory position
+	 * @param out
+	 * @param position
+	 * @param value the expression to be stored
+	 * @param pc the address of the instruction storing
+	 */
+	protected abstract void store(StringBuilder out, int position, String value, int pc);
+
+	/**
+	 * This method writes a jump
+	 * @param out
+	 * @param condition the expression that must be true to jump
+	 * @param target
+	 * @param nextPC the address used when the condition is false
+	 */
+	protected abstract void jump(StringBuilder out, String condition, int target, int nextPC);
+
+	/**
+	 * This method writes the java statements for the instruction.
+	 * imulRegMem is not written: it needs a free memory position (see FunctionalEngine)
+	 * @param out
+	 * @param instruction a direct instruction
+	 * @param pc the address of the instruction
+	 * @return true if the instruction is a jump
+	 */
+	public boolean translate(StringBuilder out, DecodedInstruction instruction, int pc) {
+		int a = instruction.operand1;
+		int b = instruction.operand2;
+		String ra = "r" + a;
+		String rb = "r" + b;
+		line(out, "ir = " + instruction.command + ";");
+		switch (instruction.command) {
+		case 0: //addRegReg
+			line(out, "result = " + ra + " + " + rb + ";");
+			flags(out);
+			line(out, rb + " = result;");
+			break;
+		case 1: //addMemReg
+			line(out, "x = " + read(a) + ";");
+			line(out, "ir = x;");
+			line(out, "result = x + " + rb + ";");
+			flags(out);
+			line(out, rb + " = result;");
+			break;
+		case 2: //addRegMem
+			line(out, "result = " + ra + " + " + read(b) + ";");
+			flags(out);
+			line(out, "ir = result;");
+			store(out, b, "result", pc);
+			break;
+		case 3: //addImmMem
+			line(out, "result = " + a + " + " + read(b) + ";");
+			flags(out);
+			line(out, "ir = result;");
+			store(out, b, "result", pc);
+			break;
+		case 4: //subRegReg
+			line(out, "result = " + ra + " - " + rb + ";");
+			flags(out);
+			line(out, rb + " = result;");
+			break;
+		case 5: //subMemReg
+			line(out, "x = " + read(a) + ";");
+			line(out, "ir = x;");
+			line(out, "result = x - " + rb + ";");
+			flags(out);
+			line(out, rb + " = result;");
+			break;
+		case 6: //subRegMem
+			line(out, "result = " + ra + " - " + read(b) + ";");
+			flags(out);
+			line(out, "ir = result;");
+			store(out, b, "result", pc);
+			break;
+		case 7: //subImmMem
+			line(out, "result = " + a + " - " + read(b) + ";");
+			flags(out);
+			line(out, "ir = result;");
+			store(out, b, "result", pc);
+			break;
+		case 8: //imulMemReg
+			line(out, "x = " + read(a) + ";");
+			line(out, "ir = x;");
+			line(out, "result = x * " + rb + ";");
+			flags(out);
+			line(out, rb + " = result;");
+			break;
+		case 10: //imulRegReg
+			line(out, "ir = " + ra + ";");
+			line(out, "result = " + ra + " * " + rb + ";");
+			flags(out);
+			line(out, rb + " = result;");
+			break;
+		case 11: //moveMemReg
+		case 25: //read
+			line(out, "x = " + read(a) + ";");
+			line(out, "ir = x;");
+			line(out, rb + " = x;");
+			break;
+		case 12: //moveRegMem
+		case 26: //store
+			store(out, b, ra, pc);
+			break;
+		case 13: //moveRegReg
+			line(out, rb + " = " + ra + ";");
+			break;
+		case 14: //moveImmReg
+			line(out, "ir = " + a + ";");
+			line(out, rb + " = " + a + ";");
+			break;
+		case 15: //incReg
+			line(out, "result = " + ra + " + 1;");
+			flags(out);
+			line(out, ra + " = result;");
+			break;
+		case 16: //incMem
+			line(out, "result = " + read(a) + " + 1;");
+			flags(out);
+			line(out, "ir = result;");
+			store(out, a, "result", pc);
+			break;
+		case 17: //jmp
+			jump(out, "true", a, instruction.nextPC);
+			return true;
+		case 18: //jn
+			jump(out, "(flags & 2) != 0", a, instruction.nextPC);
+			return true;
+		case 19: //jz
+			jump(out, "(flags & 1) != 0", a, instruction.nextPC);
+			return true;
+		case 20: //jnz
+			jump(out, "(flags & 4) != 0", a, instruction.nextPC);
+			return true;
+		case 21: //jeq
+			line(out, "ir = " + ra + ";");
+			jump(out, ra + " == " + rb, instruction.operand3, instruction.nextPC);
+			return true;
+		case 22: //jgt
+			line(out, "ir = " + ra + ";");
+			jump(out, ra + " > " + rb, instruction.operand3, instruction.nextPC);
+			return true;
+		case 23: //jlw
+			line(out, "ir = " + ra + ";");
+			jump(out, ra + " < " + rb, instruction.operand3, instruction.nextPC);
+			return true;
+		case 24: //ldi
+			line(out, ra + " = " + b + ";");
+			break;
+		}
+		return false;
+	}
+
+	/**
+	 * This method writes the statements copying the local variables back into the registers array
+	 * and returning from the generated method
+	 * @param out
+	 * @param pc the expression for the new PC
+	 * @param returned the value returned
+	 */
+	protected void exit(StringBuilder out, String pc, boolean returned) {
+		line(out, "regs[0] = r0; regs[1] = r1; regs[2] = r2; regs[3] = r3;");
+		line(out, "regs[5] = ir; regs[6] = flags;");
+		line(out, "regs[4] = " + pc + ";");
+		line(out, "return " + returned + ";");
+	}
+
+	protected void line(StringBuilder out, String statement) {
+		out.append("\t\t\t").append(statement).append("\n");
+	}
+
+	/**
+	 * This method writes the flags setting, the same way the architecture does
+	 * @param out
+	 */
+	protected void flags(StringBuilder out) {
+		line(out, "flags = (result == 0) ? 1 : ((result < 0) ? 6 : 4);");
+	}
+
+}
@@ -0,0 +1,120 @@
+package architecture;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * This class describes the instruction set of the architecture: the commands (names and operands kinds),
+ * the registers (names and ids) and the memory size.
+ * It is immutable and shared, so the assembler doesn't need to build an Architecture to know them.
+ * The operands kinds are R (a register id), M (a memory position), I (an immediate value)
+ * and A (a jump target)
+ */
+public final class Isa {
+
+	public static final int MEMORY_SIZE = 128;
+	public static final int NUMBER_OF_GPR = 4; //RPG0 to RPG3
+
+	//the commands, indexed by the command number
+	private static final String COMMANDS[] = {
+			"addRegReg", "addMemReg", "addRegMem", "addImmMem", //0-3
+			"subRegReg", "subMemReg", "subRegMem", "subImmMem", //4-7
+			"imulMemReg", "imulRegMem", "imulRegReg", //8-10
+			"moveMemReg", "moveRegMem", "moveRegReg", "moveImmReg", //11-14
+			"incReg", "incMem", //15-16
+			"jmp", "jn", "jz", "jnz", //17-20
+			"jeq", "jgt", "jlw", //21-23
+			"ldi", "read", "store" //24-26
+	};
+
+	//the operands of each command
+	private static final String OPERANDS[] = {
+			"RR", "MR", "RM", "IM",
+			"RR", "MR", "RM", "IM",
+			"MR", "RM", "RR",
+			"MR", "RM", "RR", "IR",
+			"R", "M",
+			"A", "A", "A", "A",
+			"RRA", "RRA", "RRA",
+			"RI", "MR", "RM"
+	};
+
+	//the registers, indexed by their ids
+	private static final String REGISTERS[] = {"RPG0", "RPG1", "RPG2", "RPG3", "PC", "IR", "Flags"};
+
+	private static final List<String> COMMANDS_LIST = Collections.unmodifiableList(Arrays.asList(COMMANDS));
+	private static final HashMap<String, Integer> COMMANDS_IDS = ids(COMMANDS);
+	private static final HashMap<String, Integer> REGISTERS_IDS = ids(REGISTERS);
+
+	private Isa() {
+	}
+
+	private static HashMap<String, Integer> ids(String names[]) {
+		HashMap<String, Integer> ids = new HashMap<>();
+		for (int i=0;i<names.length;i++) {
+			ids.put(names[i], i);
+		}
+		return ids;
+	}
+
+	/**
+	 * This method returns true if the number is a known command
+	 * @param command
+	 * @return
+	 */
+	public static boolean isCommand(int command) {
+		return (command >= 0)&&(command < COMMANDS.length);
+	}
+
+	public static int getCommandsCount() {
+		return COMMANDS.length;
+	}
+
+	/**
+	 * @return the commands names, indexed by the command number. The list can't be changed
+	 */
+	public static List<String> getCommandsList() {
+		return COMMANDS_LIST;
+	}
+
+	public static String getCommandName(int command) {
+		return COMMANDS[command];
+	}
+
+	/**
+	 * @param command
+	 * @return the operands kinds of the command, one char for each operand
+	 */
+	public static String getOperands(int command) {
+		return OPERANDS[command];
+	}
+
+	/**
+	 * @param name
+	 * @return the command number or -1 if there is no command with this name
+	 */
+	public static int getCommandId(String name) {
+		Integer id = COMMANDS_IDS.get(name);
+		return (id == null) ? -1 : id;
+	}
+
+	public static int getRegistersCount() {
+		return REGISTERS.length;
+	}
+
+	public static String getRegisterName(int id) {
+		return REGISTERS[id];
+	}
+
+	/**
+	 * @param name
+	 * @return the register id or -1 if there is no register with this name
+	 */
+	public static int getRegisterId(String name) {
+		Integer id = REGISTERS_IDS.get(name);
+		return (id == null) ? -1 : id;
+	}
+
+}
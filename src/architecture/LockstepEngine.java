@@ -0,0 +1,669 @@
+package architecture;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+import components.Bus;
+import components.Memory;
+
+/**
+ * This class executes the same program over many inputs at once (parameter sweeps, for instance).
+ * Each input runs in a lane: a copy of the registers, flags and memory of the architecture.
+ * The lanes are kept as structure of arrays: a register (or a memory position) is an array
+ * with a word for each lane, so each instruction is executed by a tight loop over the lanes
+ * (which the JVM can vectorize), and the instruction is decoded only once for all of them.
+ * A memory position gets its array only when some lane stores into it (they are kept by pages, as
+ * in the Memory), so the splits and the lanes executed alone only copy the positions stored.
+ *
+ * The lanes executing the same instructions form a group: the lanes from-to of the arrays.
+ * When the lanes of a group take different ways in a conditional jump, the group is split into
+ * two groups (the lanes are reordered so each group keeps contiguous). The groups are not joined again.
+ * The final state of each lane is the same one the FunctionalEngine produces.
+ * The program is shared by the lanes, so a lane storing into the program, executing out of it
+ * or executing an instruction the microprogram must do (see DecodedInstruction.direct, imulRegMem)
+ * is executed from there on by an Architecture of its own
+ */
+public class LockstepEngine {
+
+	private static final int PC = FunctionalEngine.PC;
+	private static final int IR = FunctionalEngine.IR;
+	private static final int FLAGS = FunctionalEngine.FLAGS;
+	private static final int PAGE_MASK = Memory.PAGE_SIZE-1;
+
+	private final int lanes;
+	private final int memorySize;
+	private final int regs[][]; //by register id (see Isa), a word for each lane
+	private final int columns[][][]; //by memory page (see Memory), then by position in the page, a word for each lane. Null while no lane stored it
+	private final int zeros[]; //the column of the positions never stored
+	private int allocated[]; //the positions with a column
+	private int allocatedCount;
+	private final int laneOf[]; //the lane in each index of the arrays (the lanes are reordered by the splits)
+	private final int indexOf[]; //the index of each lane in the arrays
+	private final int taken[]; //the conditional jump result, by index
+	private final int swaps[]; //the pairs of indexes swapped by a partition
+
+	private DecodedProgram program;
+	private int codeEnd; //the positions from 0 to codeEnd (exclusive) keep the program
+	private final boolean finished[]; //by lane
+	private final long executed[]; //by lane
+	private final RuntimeException errors[]; //by lane: what stopped the architecture of the lane
+	private int splits;
+	private int lanesAlone; //the lanes finished by an architecture of their own
+
+	/**
+	 * This class keeps the lanes executing the same instructions (the indexes from-to of the arrays)
+	 */
+	private static class Group {
+		final int from;
+		final int to;
+		final int pc;
+		final long executed;
+
+		Group(int from, int to, int pc, long executed) {
+			this.from = from;
+			this.to = to;
+			this.pc = pc;
+			this.executed = executed;
+		}
+	}
+
+	/**
+	 * @param lanes the amount of inputs executed
+	 * @param memorySize the size of the memory of each lane
+	 */
+	public LockstepEngine(int lanes, int memorySize) {
+		this.lanes = lanes;
+		this.memorySize = memorySize;
+		regs = new int[FLAGS+1][lanes];
+		columns = new int[(int) (((long) memorySize+PAGE_MASK)>>>Memory.PAGE_BITS)][][];
+		zeros = new int[lanes];
+		allocated = new int[64];
+		laneOf = new int[lanes];
+		indexOf = new int[lanes];
+		for (int i=0;i<lanes;i++) {
+			laneOf[i] = i;
+			indexOf[i] = i;
+		}
+		taken = new int[lanes];
+		swaps = new int[lanes];
+		finished = new boolean[lanes];
+		executed = new long[lanes];
+		errors = new RuntimeException[lanes];
+	}
+
+	/**
+	 * This method stores the program image into the memory of all the lanes, followed by the end flag
+	 * (as Architecture.loadImage)
+	 * @param image
+	 */
+	public void loadImage(int image[]) {
+		int words[] = Arrays.copyOf(image, image.length+1);
+		words[image.length] = -1;
+		load(words, words.length);
+	}
+
+	/**
+	 * This method reads an entire file in machine code and stores it into the memory of all the lanes
+	 * (as Architecture.readExec)
+	 * @param filename
+	 * @throws IOException
+	 */
+	public void readExec(String filename) throws IOException {
+		BufferedReader br = new BufferedReader(new FileReader(filename+".dxf"));
+		String linha;
+		int i=0;
+		int image[] = new int[Math.min(memorySize, 1024)];
+		while ((linha = br.readLine()) != null) {
+			if (i == memorySize) {
+				br.close();
+				throw new IOException(filename+".dxf has more words than the "+memorySize+" positions of the memory");
+			}
+			if (i == image.length)
+				image = Arrays.copyOf(image, (int) Math.min(memorySize, 2L*i+1));
+			image[i] = Integer.parseInt(linha);
+			i++;
+		}
+		br.close();
+		load(image, i);
+	}
+
+	/**
+	 * This method stores the program into all the lanes and decodes it once for all of them
+	 * @param image
+	 * @param length
+	 */
+	private void load(int image[], int length) {
+		if (length > memorySize)
+			throw new IndexOutOfBoundsException("the program doesn't fit in the memory");
+		for (int i=0;i<length;i++) {
+			Arrays.fill(column(i), image[i]);
+		}
+		Memory memory = new Memory(memorySize, new Bus());
+		memory.load(0, image, 0, length);
+		program = new DecodedProgram(memory);
+		program.predecode(length);
+		codeEnd = length;
+	}
+
+	/**
+	 * This method stores a word for each lane into the position (the inputs of the sweep, as the variables)
+	 * @param position
+	 * @param values a word for each lane
+	 */
+	public void setData(int position, int values[]) {
+		if (values.length != lanes)
+			throw new IllegalArgumentException("there must be a word for each lane");
+		checkData(position);
+		int column[] = column(position);
+		for (int lane=0;lane<lanes;lane++) {
+			column[indexOf[lane]] = values[lane];
+		}
+	}
+
+	/**
+	 * This method stores a word into the position of a single lane
+	 * @param lane
+	 * @param position
+	 * @param value
+	 */
+	public void store(int lane, int position, int value) {
+		checkData(position);
+		column(position)[indexOf[lane]] = value;
+	}
+
+	/**
+	 * The program is shared by all the lanes, so they can't have different words in it
+	 * @param position
+	 */
+	private void checkData(int position) {
+		if ((position < codeEnd)&&(position >= 0))
+			throw new IllegalArgumentException("the position "+position+" keeps the program, shared by the lanes");
+	}
+
+	/**
+	 * This method returns the column of the position, creating it if no lane stored it before
+	 * @param position
+	 * @return
+	 */
+	private int[] column(int position) {
+		int page[][] = columns[position>>>Memory.PAGE_BITS];
+		if (page == null) {
+			page = new int[Math.min(Memory.PAGE_SIZE, memorySize-(position & ~PAGE_MASK))][]; //the last page can be smaller
+			columns[position>>>Memory.PAGE_BITS] = page;
+		}
+		int column[] = page[position & PAGE_MASK];
+		if (column == null) {
+			column = new int[lanes];
+			page[position & PAGE_MASK] = column;
+			if (allocatedCount == allocated.length)
+				allocated = Arrays.copyOf(allocated, allocatedCount*2);
+			allocated[allocatedCount++] = position;
+		}
+		return column;
+	}
+
+	/**
+	 * This method returns the column of the position to be read
+	 * @param position
+	 * @return
+	 */
+	private int[] readColumn(int position) {
+		int page[][] = columns[position>>>Memory.PAGE_BITS];
+		int column[] = (page == null) ? null : page[position & PAGE_MASK];
+		return (column == null) ? zeros : column;
+	}
+
+	/**
+	 * @param position
+	 * @return true if some lane stored into the position
+	 */
+	private boolean hasColumn(int position) {
+		int page[][] = columns[position>>>Memory.PAGE_BITS];
+		return (page != null)&&(page[position & PAGE_MASK] != null);
+	}
+
+	/**
+	 * This method executes the program in all the lanes, from the address 0,
+	 * until each lane finds the end flag (-1) or executes budget instructions
+	 * @param budget
+	 */
+	public void run(long budget) {
+		if (program == null)
+			throw new IllegalStateException("no program was loaded");
+		ArrayDeque<Group> groups = new ArrayDeque<Group>();
+		groups.push(new Group(0, lanes, 0, 0));
+		while (!groups.isEmpty()) {
+			Group group = groups.pop();
+			if (group.from < group.to)
+				run(group, budget, groups);
+		}
+	}
+
+	/**
+	 * This method executes the lanes of the group until they finish or take different ways.
+	 * In this case the two new groups are pushed into the groups to be executed
+	 * @param group
+	 * @param budget
+	 * @param groups
+	 */
+	private void run(Group group, long budget, ArrayDeque<Group> groups) {
+		final int from = group.from;
+		final int to = group.to;
+		int pc = group.pc;
+		long count = group.executed;
+		final int ir[] = regs[IR];
+		final int flags[] = regs[FLAGS];
+		while (count < budget) {
+			if ((pc < 0)||(pc >= codeEnd)) { //out of the shared program
+				runAlone(from, to, pc, count, budget);
+				return;
+			}
+			DecodedInstruction instruction = program.get(pc);
+			int command = instruction.command;
+			if (!DecodedProgram.isCommand(command)) {
+				Arrays.fill(ir, from, to, command);
+				finish(from, to, pc, count, true);
+				return;
+			}
+			if ((!instruction.direct)||(command == 9)||(instruction.nextPC > codeEnd)||(storesIntoProgram(instruction))) {
+				runAlone(from, to, pc, count, budget);
+				return;
+			}
+			Arrays.fill(ir, from, to, command); //as the FunctionalEngine, the instructions not reading a word keep the command
+			int a = instruction.operand1;
+			int b = instruction.operand2;
+			int ra[], rb[], m[];
+			switch (command) {
+			case 0: //addRegReg
+				ra = regs[a];
+				rb = regs[b];
+				for (int l=from;l<to;l++)
+					rb[l] = ra[l] + rb[l];
+				setStatusFlags(rb, from, to);
+				break;
+			case 1: //addMemReg
+				m = readColumn(a);
+				rb = regs[b];
+				for (int l=from;l<to;l++) {
+					ir[l] = m[l];
+					rb[l] = m[l] + rb[l];
+				}
+				setStatusFlags(rb, from, to);
+				break;
+			case 2: //addRegMem
+				ra = regs[a];
+				m = column(b);
+				for (int l=from;l<to;l++) {
+					m[l] = ra[l] + m[l];
+					ir[l] = m[l];
+				}
+				setStatusFlags(m, from, to);
+				break;
+			case 3: //addImmMem
+				m = column(b);
+				for (int l=from;l<to;l++) {
+					m[l] = a + m[l];
+					ir[l] = m[l];
+				}
+				setStatusFlags(m, from, to);
+				break;
+			case 4: //subRegReg
+				ra = regs[a];
+				rb = regs[b];
+				for (int l=from;l<to;l++)
+					rb[l] = ra[l] - rb[l];
+				setStatusFlags(rb, from, to);
+				break;
+			case 5: //subMemReg
+				m = readColumn(a);
+				rb = regs[b];
+				for (int l=from;l<to;l++) {
+					ir[l] = m[l];
+					rb[l] = m[l] - rb[l];
+				}
+				setStatusFlags(rb, from, to);
+				break;
+			case 6: //subRegMem
+				ra = regs[a];
+				m = column(b);
+				for (int l=from;l<to;l++) {
+					m[l] = ra[l] - m[l];
+					ir[l] = m[l];
+				}
+				setStatusFlags(m, from, to);
+				break;
+			case 7: //subImmMem
+				m = column(b);
+				for (int l=from;l<to;l++) {
+					m[l] = a - m[l];
+					ir[l] = m[l];
+				}
+				setStatusFlags(m, from, to);
+				break;
+			case 8: //imulMemReg
+				m = readColumn(a);
+				rb = regs[b];
+				for (int l=from;l<to;l++) {
+					ir[l] = m[l];
+					rb[l] = m[l] * rb[l];
+				}
+				setStatusFlags(rb, from, to);
+				break;
+			case 10: //imulRegReg
+				ra = regs[a];
+				rb = regs[b];
+				for (int l=from;l<to;l++) {
+					ir[l] = ra[l];
+					rb[l] = ra[l] * rb[l];
+				}
+				setStatusFlags(rb, from, to);
+				break;
+			case 11: //moveMemReg
+			case 25: //read
+				m = readColumn(a);
+				rb = regs[b];
+				for (int l=from;l<to;l++) {
+					ir[l] = m[l];
+					rb[l] = m[l];
+				}
+				break;
+			case 12: //moveRegMem
+			case 26: //store
+				System.arraycopy(regs[a], from, column(b), from, to-from);
+				break;
+			case 13: //moveRegReg
+				System.arraycopy(regs[a], from, regs[b], from, to-from);
+				break;
+			case 14: //moveImmReg
+				Arrays.fill(ir, from, to, a);
+				Arrays.fill(regs[b], from, to, a);
+				break;
+			case 15: //incReg
+				ra = regs[a];
+				for (int l=from;l<to;l++)
+					ra[l]++;
+				setStatusFlags(ra, from, to);
+				break;
+			case 16: //incMem
+				m = column(a);
+				for (int l=from;l<to;l++) {
+					m[l]++;
+					ir[l] = m[l];
+				}
+				setStatusFlags(m, from, to);
+				break;
+			case 17: //jmp
+				pc = a;
+				count++;
+				continue;
+			case 18: //jn
+				for (int l=from;l<to;l++)
+					taken[l] = (flags[l]>>1) & 1;
+				break;
+			case 19: //jz
+				for (int l=from;l<to;l++)
+					taken[l] = flags[l] & 1;
+				break;
+			case 20: //jnz
+				for (int l=from;l<to;l++)
+					taken[l] = (flags[l]>>2) & 1;
+				break;
+			case 21: //jeq
+				ra = regs[a];
+				rb = regs[b];
+				for (int l=from;l<to;l++) {
+					ir[l] = ra[l];
+					taken[l] = (ra[l] == rb[l]) ? 1 : 0;
+				}
+				break;
+			case 22: //jgt
+				ra = regs[a];
+				rb = regs[b];
+				for (int l=from;l<to;l++) {
+					ir[l] = ra[l];
+					taken[l] = (ra[l] > rb[l]) ? 1 : 0;
+				}
+				break;
+			case 23: //jlw
+				ra = regs[a];
+				rb = regs[b];
+				for (int l=from;l<to;l++) {
+					ir[l] = ra[l];
+					taken[l] = (ra[l] < rb[l]) ? 1 : 0;
+				}
+				break;
+			case 24: //ldi
+				Arrays.fill(regs[a], from, to, b);
+				break;
+			}
+			count++;
+			if ((command >= 18)&&(command <= 23)) { //the conditional jumps
+				int target = (command >= 21) ? instruction.operand3 : a;
+				int takenCount = 0;
+				for (int l=from;l<to;l++)
+					takenCount += taken[l];
+				if (takenCount == to-from)
+					pc = target;
+				else if (takenCount == 0)
+					pc = instruction.nextPC;
+				else { //the lanes take different ways
+					int middle = partition(from, to);
+					splits++;
+					groups.push(new Group(middle, to, instruction.nextPC, count));
+					groups.push(new Group(from, middle, target, count));
+					return;
+				}
+			}
+			else
+				pc = instruction.nextPC;
+		}
+		finish(from, to, pc, count, false);
+	}
+
+	/**
+	 * This method sets the flags bits of the lanes the same way the architecture does
+	 * @param result
+	 * @param from
+	 * @param to
+	 */
+	private void setStatusFlags(int result[], int from, int to) {
+		int flags[] = regs[FLAGS];
+		for (int l=from;l<to;l++) {
+			int r = result[l];
+			flags[l] = (r == 0) ? 1 : (4 | ((r>>>31)<<1)); //zero, or not zero (and negative)
+		}
+	}
+
+	/**
+	 * @param instruction
+	 * @return true if the instruction stores into the positions of the program
+	 */
+	private boolean storesIntoProgram(DecodedInstruction instruction) {
+		switch (instruction.command) {
+		case 2: case 3: case 6: case 7: case 12: case 26:
+			return instruction.operand2 < codeEnd;
+		case 16:
+			return instruction.operand1 < codeEnd;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * This method reorders the lanes from-to, putting the ones taking the jump first
+	 * @param from
+	 * @param to
+	 * @return the index of the first lane not taking the jump
+	 */
+	private int partition(int from, int to) {
+		int i = from;
+		int j = to-1;
+		int count = 0;
+		while (true) {
+			while ((i <= j)&&(taken[i] == 1))
+				i++;
+			while ((i <= j)&&(taken[j] == 0))
+				j--;
+			if (i >= j)
+				break;
+			swaps[count++] = i;
+			swaps[count++] = j;
+			taken[i] = 1;
+			taken[j] = 0;
+		}
+		if (count > 0) {
+			for (int r[]:regs)
+				swap(r, count);
+			for (int k=0;k<allocatedCount;k++) //a column at a time, only the ones some lane stored
+				swap(column(allocated[k]), count);
+			swap(laneOf, count);
+			for (int k=0;k<count;k++)
+				indexOf[laneOf[swaps[k]]] = swaps[k];
+		}
+		return i;
+	}
+
+	/**
+	 * This method swaps the words of the pairs of indexes in swaps
+	 * @param words
+	 * @param count the amount of indexes in swaps
+	 */
+	private void swap(int words[], int count) {
+		for (int k=0;k<count;k+=2) {
+			int aux = words[swaps[k]];
+			words[swaps[k]] = words[swaps[k+1]];
+			words[swaps[k+1]] = aux;
+		}
+	}
+
+	/**
+	 * This method keeps the lanes from-to as stopped in the pc
+	 * @param from
+	 * @param to
+	 * @param pc
+	 * @param count the instructions executed
+	 * @param end true if the end flag was found
+	 */
+	private void finish(int from, int to, int pc, long count, boolean end) {
+		Arrays.fill(regs[PC], from, to, pc);
+		for (int l=from;l<to;l++) {
+			finished[laneOf[l]] = end;
+			executed[laneOf[l]] = count;
+		}
+	}
+
+	/**
+	 * This method executes each lane from-to in an architecture of its own, from the pc on.
+	 * The state of the lane is copied into the architecture before and copied back after it:
+	 * only the stored positions are copied, and only the allocated pages are read back
+	 * @param from
+	 * @param to
+	 * @param pc
+	 * @param count the instructions already executed
+	 * @param budget
+	 */
+	private void runAlone(int from, int to, int pc, long count, long budget) {
+		int state[] = new int[FLAGS+1];
+		int words[] = new int[Memory.PAGE_SIZE];
+		for (int l=from;l<to;l++) {
+			Architecture arch = new Architecture(false, true, memorySize);
+			Memory memory = arch.getMemory();
+			for (int i=0;i<allocatedCount;i++)
+				memory.storeDirect(allocated[i], column(allocated[i])[l]);
+			for (int r=0;r<state.length;r++)
+				state[r] = regs[r][l];
+			state[PC] = pc;
+			FunctionalEngine.writeRegisters(arch.getRegistersList(), state);
+			boolean end = false;
+			try {
+				end = arch.controlUnitEexec(budget-count);
+			}
+			catch (RuntimeException e) { //the other lanes go on
+				errors[laneOf[l]] = e;
+			}
+			FunctionalEngine.readRegisters(arch.getRegistersList(), state);
+			for (int r=0;r<state.length;r++)
+				regs[r][l] = state[r];
+			int storedEnd = memory.getStoredEnd();
+			for (int position=0;position<storedEnd;position+=Memory.PAGE_SIZE) { //a page at a time
+				if (!memory.isAllocated(position))
+					continue;
+				int length = Math.min(words.length, storedEnd-position);
+				memory.copyOut(position, words, 0, length);
+				for (int i=0;i<length;i++) {
+					if ((words[i] != 0)||(hasColumn(position+i)))
+						column(position+i)[l] = words[i];
+				}
+			}
+			finished[laneOf[l]] = end;
+			executed[laneOf[l]] = count+arch.getExecuted();
+			lanesAlone++;
+		}
+	}
+
+	/**
+	 * @param lane
+	 * @param id the register id (see Isa). The flags are packed as in the FunctionalEngine
+	 * @return
+	 */
+	public int getRegister(int lane, int id) {
+		return regs[id][indexOf[lane]];
+	}
+
+	/**
+	 * @param lane
+	 * @param position
+	 * @return the word in the position of the lane memory
+	 */
+	public int read(int lane, int position) {
+		return readColumn(position)[indexOf[lane]];
+	}
+
+	/**
+	 * @param lane
+	 * @return true if the lane found the end flag, false if the budget ran out
+	 */
+	public boolean isFinished(int lane) {
+		return finished[lane];
+	}
+
+	/**
+	 * @param lane
+	 * @return the exception that stopped the lane (when executed by an architecture of its own), or null
+	 */
+	public RuntimeException getError(int lane) {
+		return errors[lane];
+	}
+
+	/**
+	 * @param lane
+	 * @return the amount of instructions the lane executed
+	 */
+	public long getExecuted(int lane) {
+		return executed[lane];
+	}
+
+	/**
+	 * @return how many times a group was split by a conditional jump
+	 * This method is used for TDD purposes only
+	 */
+	protected int getSplits() {
+		return splits;
+	}
+
+	/**
+	 * @return the amount of lanes executed by architectures of their own
+	 * This method is used for TDD purposes only
+	 */
+	protected int getLanesAlone() {
+		return lanesAlone;
+	}
+
+	public int getLanes() {
+		return lanes;
+	}
+
+}
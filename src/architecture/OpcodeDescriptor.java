@@ -0,0 +1,40 @@
+package architecture;
+
+/**
+ * This class describes a command of the architecture: its name, the kinds of its operands
+ * and the microprogram executing it.
+ * The operands kinds are R (a register id), M (a memory position), I (an immediate value)
+ * and A (a jump target)
+ */
+public class OpcodeDescriptor {
+
+	private final String name;
+	private final String operands;
+	private final Runnable handler;
+
+	public OpcodeDescriptor(String name, String operands, Runnable handler) {
+		this.name = name;
+		this.operands = operands;
+		this.handler = handler;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return the operands kinds, one char for each operand
+	 */
+	public String getOperands() {
+		return operands;
+	}
+
+	public int getOperandsCount() {
+		return operands.length();
+	}
+
+	public Runnable getHandler() {
+		return handler;
+	}
+
+}
@@ -0,0 +1,62 @@
+package architecture;
+
+import java.io.File;
+
+/**
+ * This interface is implemented by the classes assembler.Translator generates from the executable files.
+ * Each one runs the whole program as java code, over a registers array (same ids used by the FunctionalEngine)
+ * and the memory data list
+ */
+public interface PrecompiledProgram {
+
+	/**
+	 * This method runs the program from the PC in the registers array
+	 * @param regs
+	 * @param mem
+	 * @return true if the program finished. false if it stopped in an instruction that
+	 * 				must be executed by the architecture (PC points to it)
+	 */
+	public boolean run(int regs[], int mem[]);
+
+	/**
+	 * @return the hash of the executable image the class was generated from (see imageHash)
+	 */
+	public long getImageHash();
+
+	/**
+	 * This method calculates the hash of an executable image (FNV-1a over the words).
+	 * The memory size is part of the hash, once the program is translated for a given memory
+	 * @param image
+	 * @param length the amount of words in the image
+	 * @param memorySize
+	 * @return
+	 */
+	public static long imageHash(int image[], int length, int memorySize) {
+		long hash = 0xcbf29ce484222325L;
+		hash = (hash ^ memorySize) * 0x100000001b3L;
+		for (int i=0;i<length;i++) {
+			hash = (hash ^ image[i]) * 0x100000001b3L;
+		}
+		return hash;
+	}
+
+	/**
+	 * This method returns the name of the class generated from the executable file
+	 * (program.dxf becomes ProgramExec)
+	 * @param filename the file name without the extension
+	 * @return
+	 */
+	public static String className(String filename) {
+		String name = new File(filename).getName();
+		StringBuilder className = new StringBuilder();
+		for (int i=0;i<name.length();i++) {
+			char c = name.charAt(i);
+			className.append(Character.isJavaIdentifierPart(c) ? c : '_');
+		}
+		if ((className.length() == 0)||(!Character.isJavaIdentifierStart(className.charAt(0))))
+			className.insert(0, 'P');
+		className.setCharAt(0, Character.toUpperCase(className.charAt(0)));
+		return className + "Exec";
+	}
+
+}
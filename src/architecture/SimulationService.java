@@ -0,0 +1,216 @@
+package architecture;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Method;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class keeps a warm JVM executing simulations for other processes (graders, tools...),
+ * so they don't pay the JVM start and the assembler for each program.
+ * Each simulation is submitted with its program image (and the initial data of the memory)
+ * and executed in a thread of its own, returning a future of the state when the program stops.
+ * The threads are virtual ones when the JVM has them (java 21 on). Otherwise a thread for each core is used.
+ * The architectures come from a pool, so they are created only while the simulations at the same time grow.
+ *
+ * The main method reads requests from the standard input, a line for each one:
+ * 		run id budget words [address data]	the words of the image and the data are separated by commas
+ * 		exec id budget program				the program is a .dxf file (without the extension)
+ * 		quit
+ * and writes the results (see BatchRunner.Result) as they are ready, a line for each one starting by the id
+ */
+public class SimulationService {
+
+	private final ExecutorService executor;
+	private final ArchitecturePool pool;
+	private final boolean virtualThreads;
+
+	/**
+	 * This constructor uses the virtual threads (if the JVM has them)
+	 * @param pool
+	 */
+	public SimulationService(ArchitecturePool pool) {
+		ExecutorService virtual = newVirtualThreadExecutor();
+		virtualThreads = virtual != null;
+		executor = virtualThreads ? virtual : Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+		this.pool = pool;
+	}
+
+	/**
+	 * @param executor the threads executing the simulations
+	 * @param pool
+	 */
+	public SimulationService(ExecutorService executor, ArchitecturePool pool) {
+		this.executor = executor;
+		this.pool = pool;
+		virtualThreads = false;
+	}
+
+	/**
+	 * This method creates an executor starting a virtual thread for each task.
+	 * It is found by reflection, since the virtual threads only exist from java 21 on
+	 * @return the executor or null if the JVM has no virtual threads
+	 */
+	static ExecutorService newVirtualThreadExecutor() {
+		try {
+			Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) method.invoke(null);
+		}
+		catch (ReflectiveOperationException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @return true if the simulations are executed by virtual threads
+	 */
+	public boolean usesVirtualThreads() {
+		return virtualThreads;
+	}
+
+	/**
+	 * This method submits a simulation of the program image. The data is stored into the memory
+	 * (after the image) before the execution
+	 * @param name the name of the simulation in its result
+	 * @param image the program words, without the end flag (as Assembler.assemble gives)
+	 * @param dataAddress
+	 * @param data the initial data, or null
+	 * @param budget the most instructions executed (Long.MAX_VALUE for no budget)
+	 * @return the future of the result. It fails if the image or the data don't fit in the memory
+	 */
+	public CompletableFuture<BatchRunner.Result> submit(String name, int image[], int dataAddress, int data[], long budget) {
+		return CompletableFuture.supplyAsync(() -> {
+			Architecture arch = pool.acquire();
+			try {
+				arch.loadImage(image);
+				if (data != null)
+					arch.getMemory().load(dataAddress, data, 0, data.length);
+				return simulate(name, arch, budget);
+			}
+			finally {
+				pool.release(arch);
+			}
+		}, executor);
+	}
+
+	/**
+	 * This method submits a simulation of an executable
+	 * @param name the name of the simulation in its result
+	 * @param program the .dxf file (without the extension)
+	 * @param budget the most instructions executed (Long.MAX_VALUE for no budget)
+	 * @return the future of the result. It fails if the file can't be read
+	 */
+	public CompletableFuture<BatchRunner.Result> submit(String name, String program, long budget) {
+		return CompletableFuture.supplyAsync(() -> {
+			Architecture arch = pool.acquire();
+			try {
+				arch.readExec(program);
+				return simulate(name, arch, budget);
+			}
+			catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			finally {
+				pool.release(arch);
+			}
+		}, executor);
+	}
+
+	/**
+	 * This method executes the program loaded into the architecture
+	 * @param name
+	 * @param arch
+	 * @param budget
+	 * @return
+	 */
+	private static BatchRunner.Result simulate(String name, Architecture arch, long budget) {
+		boolean finished = arch.controlUnitEexec(budget);
+		return BatchRunner.summary(name, arch, finished);
+	}
+
+	/**
+	 * This method stops accepting simulations and waits for the ones submitted
+	 * @throws InterruptedException
+	 */
+	public void shutdown() throws InterruptedException {
+		executor.shutdown();
+		executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * This method submits the simulation requested by a line of the protocol (see the class comment).
+	 * The result line is written into the output when it is ready
+	 * @param line
+	 * @param out
+	 * @return false if the line is quit
+	 */
+	public boolean request(String line, PrintStream out) {
+		String tokens[] = line.trim().split("\\s+");
+		if (tokens[0].equals("quit"))
+			return false;
+		if (tokens[0].isEmpty())
+			return true;
+		String id = (tokens.length > 1) ? tokens[1] : "?";
+		CompletableFuture<BatchRunner.Result> future;
+		try {
+			if ((tokens[0].equals("run"))&&((tokens.length == 4)||(tokens.length == 6))) {
+				int image[] = parseWords(tokens[3]);
+				int data[] = (tokens.length == 6) ? parseWords(tokens[5]) : null;
+				int dataAddress = (tokens.length == 6) ? Integer.parseInt(tokens[4]) : 0;
+				future = submit(id, image, dataAddress, data, Long.parseLong(tokens[2]));
+			}
+			else if ((tokens[0].equals("exec"))&&(tokens.length == 4))
+				future = submit(id, tokens[3], Long.parseLong(tokens[2]));
+			else
+				throw new IllegalArgumentException("unknown request: "+line);
+		}
+		catch (IllegalArgumentException e) {
+			future = CompletableFuture.failedFuture(e);
+		}
+		future.whenComplete((result, error) -> {
+			String text = (error != null) ? id+" error "+((error.getCause() != null) ? error.getCause() : error) : result.toString();
+			synchronized (out) {
+				out.println(text);
+				out.flush();
+			}
+		});
+		return true;
+	}
+
+	/**
+	 * @param text words separated by commas
+	 * @return
+	 */
+	private static int[] parseWords(String text) {
+		String words[] = text.split(",");
+		int values[] = new int[words.length];
+		for (int i=0;i<words.length;i++) {
+			values[i] = Integer.parseInt(words[i]);
+		}
+		return values;
+	}
+
+	/**
+	 * usage: SimulationService [memory size]
+	 * @param args
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		int memorySize = (args.length > 0) ? Integer.parseInt(args[0]) : Isa.MEMORY_SIZE;
+		SimulationService service = new SimulationService(new ArchitecturePool(true, memorySize, false,
+				Runtime.getRuntime().availableProcessors()));
+		BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+		String line;
+		while (((line = in.readLine()) != null)&&(service.request(line, System.out))) {
+		}
+		service.shutdown();
+	}
+
+}
@@ -2,12 +2,18 @@ package architecture;
 
 import static org.junit.Assert.*;
 
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 
 import org.junit.Test;
 
+import assembler.Assembler;
 import components.Memory;
+import components.Register;
 
 public class TestArchitecture {
 	
@@ -550,6 +556,209 @@ public class TestArchitecture {
 	}
 		
 	
+	@Test
+	public void testImulRegReg() {
+		Architecture arch = new Architecture();
+
+		//storing the number 0 in the memory, in position 31
+		arch.getMemory().getDataList()[31]=0;
+		//storing the number 1 in the memory, in position 32
+		arch.getMemory().getDataList()[32]=1;
+		//making PC points to position 30
+		arch.getExtbus1().put(30);
+		arch.getPC().store();
+		
+		//now setting the registers values
+		arch.getExtbus1().put(-3);
+		arch.getRegistersList().get(0).store(); //RPG0 has -3
+		arch.getExtbus1().put(100000);
+		arch.getRegistersList().get(1).store(); //RPG1 has 100000
+		
+		//executing the command imul REG0 REG1.
+		arch.imulRegReg();
+		
+		//testing if REG1 has -300000 (a large multiplier must not take 100000 ula passes)
+		arch.getRegistersList().get(1).read();
+		assertEquals(-300000, arch.getExtbus1().get());
+		//the result is negative
+		assertEquals(1, arch.getFlags().getBit(1));
+		assertEquals(0, arch.getFlags().getBit(0));
+		
+		//Testing if PC points to 3 positions after the original
+		//PC was pointing to 30; now it must be pointing to 33
+		arch.getPC().read();assertEquals(33, arch.getExtbus1().get());
+	}
+		
+	
+	@Test
+	public void testLoadImage() {
+		//assembling without files
+		int image[] = Assembler.assemble(Arrays.asList(
+				"var1",
+				"ldi %RPG0 5",
+				"moveImmReg 7 %RPG1",
+				"addRegReg %RPG0 %RPG1",
+				"moveRegMem %RPG1 &var1"));
+		assertEquals(12, image.length);
+		
+		//the same image must give the same result in both engines
+		for (boolean fast:new boolean[] {false, true}) {
+			Architecture arch = new Architecture(false, fast);
+			arch.loadImage(image);
+			for (int i=0;i<image.length;i++)
+				assertEquals(image[i], arch.getMemory().getDataList()[i]);
+			assertEquals(-1, arch.getMemory().getDataList()[image.length]); //the end flag
+			arch.controlUnitEexec();
+			assertEquals(12, arch.getMemory().getDataList()[arch.getMemorySize()-1]); //var1 is in the last position
+		}
+		
+		//a label not declared: there is no image
+		assertNull(Assembler.assemble(Arrays.asList("jmp nowhere")));
+	}
+	
+	@Test
+	public void testReadExecTooLong() throws IOException {
+		//a file with more words than the memory positions
+		File file = File.createTempFile("long", ".dxf");
+		file.deleteOnExit();
+		BufferedWriter writer = new BufferedWriter(new FileWriter(file));
+		for (int i=0;i<=Isa.MEMORY_SIZE;i++) {
+			writer.write("0");
+			writer.newLine();
+		}
+		writer.close();
+		String filename = file.getPath().substring(0, file.getPath().length()-".dxf".length());
+		try {
+			new Architecture(false, true).readExec(filename);
+			fail("the file doesn't fit in the memory");
+		}
+		catch (IOException e) {
+		}
+	}
+	
+	@Test
+	public void testBigMemory() {
+		int size = 1<<30;
+		int image[] = Assembler.assemble(Arrays.asList(
+				"var1",
+				"var2",
+				"ldi %RPG0 5",
+				"moveImmReg 7 %RPG1",
+				"addRegReg %RPG0 %RPG1",
+				"moveRegMem %RPG1 &var2",
+				"imulRegMem %RPG0 &var2"), size);
+		assertEquals(size-2, image[11]); //the variables are in the end of the memory
+		
+		for (boolean fast:new boolean[] {false, true}) {
+			for (boolean offHeap:new boolean[] {false, true}) {
+				Architecture arch = new Architecture(false, fast, size, offHeap);
+				assertEquals(size, arch.getMemorySize());
+				assertEquals(offHeap, arch.getMemory().isOffHeap());
+				arch.loadImage(image);
+				arch.controlUnitEexec();
+				assertEquals(60, arch.getMemory().readDirect(size-2)); //var2 = 5 * 12
+				assertTrue(arch.getMemory().getAllocatedPages() <= 2); //the program and the variables
+			}
+		}
+	}
+	
+	@Test
+	public void testFork() {
+		int image[] = Assembler.assemble(Arrays.asList(
+				"input",
+				"moveMemReg &input %RPG0",
+				"addRegReg %RPG1 %RPG0",
+				"moveRegMem %RPG0 &input"));
+		for (boolean fast:new boolean[] {false, true}) {
+			Architecture arch = new Architecture(false, fast);
+			arch.loadImage(image);
+			arch.getExtbus1().put(100);
+			arch.getRPG1().store(); //RPG1 has 100
+			
+			//each fork gets its own input
+			Architecture forks[] = {arch.fork(), arch.fork()};
+			for (int i=0;i<forks.length;i++) {
+				forks[i].getMemory().storeDirect(arch.getMemorySize()-1, i+1);
+				forks[i].controlUnitEexec();
+			}
+			assertEquals(101, forks[0].getMemory().readDirect(arch.getMemorySize()-1));
+			assertEquals(102, forks[1].getMemory().readDirect(arch.getMemorySize()-1));
+			
+			//the forked architecture is still in the same state
+			assertEquals(0, arch.getMemory().readDirect(arch.getMemorySize()-1));
+			arch.getPC().read();
+			assertEquals(0, arch.getExtbus1().get());
+			arch.controlUnitEexec();
+			assertEquals(100, arch.getMemory().readDirect(arch.getMemorySize()-1));
+		}
+	}
+	
+	@Test
+	public void testBudget() {
+		int image[] = Assembler.assemble(Arrays.asList(
+				"start:",
+				"incReg %RPG2",
+				"jmp start"));
+		for (boolean fast:new boolean[] {false, true}) {
+			Architecture arch = new Architecture(false, fast);
+			arch.loadImage(image);
+			//the program never stops, so the budget stops it
+			assertFalse(arch.controlUnitEexec(101));
+			assertEquals(101, arch.getExecuted());
+			assertEquals(51, arch.getRPG2().getData());
+			
+			//a program that stops before the budget
+			arch.reset();
+			arch.loadImage(Assembler.assemble(Arrays.asList("ldi %RPG0 3", "incReg %RPG0")));
+			assertTrue(arch.controlUnitEexec(100));
+			assertEquals(2, arch.getExecuted());
+			assertEquals(4, arch.getRPG().getData());
+		}
+		
+		//the compiled blocks loop inside them, so they are not used with a budget
+		for (String jump:new String[] {"jmp start", "jnz start"}) {
+			Architecture arch = new Architecture(false, true);
+			arch.enableBlockCompilation(2);
+			arch.loadImage(Assembler.assemble(Arrays.asList(
+					"start:",
+					"incReg %RPG2",
+					jump)));
+			assertFalse(arch.controlUnitEexec(1000));
+			assertEquals(1000, arch.getExecuted());
+			assertEquals(500, arch.getRPG2().getData());
+		}
+	}
+	
+	@Test
+	public void testReset() {
+		int image[] = Assembler.assemble(Arrays.asList(
+				"var1",
+				"ldi %RPG0 -5",
+				"moveImmReg 7 %RPG1",
+				"addRegReg %RPG0 %RPG1",
+				"moveRegMem %RPG1 &var1"));
+		for (boolean fast:new boolean[] {false, true}) {
+			Architecture arch = new Architecture(false, fast);
+			arch.loadImage(image);
+			arch.controlUnitEexec();
+			assertEquals(2, arch.getMemory().readDirect(arch.getMemorySize()-1));
+			
+			arch.reset();
+			for (Register r:arch.getRegistersList())
+				assertEquals(0, r.getData());
+			for (int i=0;i<3;i++)
+				assertEquals(0, arch.getFlags().getBit(i));
+			assertEquals(0, arch.getExtbus1().get());
+			for (int i=0;i<arch.getMemorySize();i++)
+				assertEquals(0, arch.getMemory().readDirect(i));
+			
+			//the same program runs again as in a new architecture
+			arch.loadImage(image);
+			arch.controlUnitEexec();
+			assertEquals(2, arch.getMemory().readDirect(arch.getMemorySize()-1));
+		}
+	}
+	
 	@Test
 	public void testFillCommandsList() {
 		
@@ -582,6 +791,22 @@ public class TestArchitecture {
 		assertTrue("inc".equals(commands.get(8)));
 	}
 	
+	@Test
+	public void testGetOpcode() {
+		Architecture arch = new Architecture();
+		//the commands list and the opcodes table have the same commands
+		ArrayList<String> commands = arch.getCommandsList();
+		for (int i=0;i<commands.size();i++) {
+			assertEquals(commands.get(i), arch.getOpcode(i).getName());
+		}
+		assertEquals("RM", arch.getOpcode(2).getOperands()); //addRegMem
+		assertEquals(3, arch.getOpcode(21).getOperandsCount()); //jeq
+		assertEquals(1, arch.getOpcode(17).getOperandsCount()); //jmp
+		//the end of the program is not a command
+		assertNull(arch.getOpcode(-1));
+		assertNull(arch.getOpcode(commands.size()));
+	}
+	
 	@Test
 	public void testReadExec() throws IOException {
 		Architecture arch = new Architecture();
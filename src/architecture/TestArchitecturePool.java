@@ -0,0 +1,80 @@
+package architecture;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import assembler.Assembler;
+
+public class TestArchitecturePool {
+
+	@Test
+	public void testAcquireRelease() {
+		ArchitecturePool pool = new ArchitecturePool(true, Isa.MEMORY_SIZE, false, 1);
+		Architecture arch = pool.acquire();
+		assertEquals(0, pool.getIdleCount());
+		arch.getMemory().storeDirect(100, 5);
+		pool.release(arch);
+		assertEquals(1, pool.getIdleCount());
+		
+		//the architecture is used again, reset
+		assertSame(arch, pool.acquire());
+		assertEquals(0, arch.getMemory().readDirect(100));
+		
+		//the pool keeps only one architecture
+		Architecture other = pool.acquire();
+		assertNotSame(arch, other);
+		pool.release(arch);
+		pool.release(other);
+		assertEquals(1, pool.getIdleCount());
+		
+		//architectures with other memory size can't be released
+		try {
+			pool.release(new Architecture(false, true, 256));
+			fail("the memory size is different");
+		}
+		catch (IllegalArgumentException e) {
+		}
+	}
+
+	@Test
+	public void testThreads() throws InterruptedException {
+		final ArchitecturePool pool = new ArchitecturePool(true, Isa.MEMORY_SIZE, false, 4);
+		final ArrayList<Throwable> errors = new ArrayList<>();
+		Thread threads[] = new Thread[8];
+		for (int t=0;t<threads.length;t++) {
+			final int input = t;
+			threads[t] = new Thread(() -> {
+				int image[] = Assembler.assemble(Arrays.asList(
+						"var1",
+						"ldi %RPG0 "+input,
+						"moveImmReg 7 %RPG1",
+						"addRegReg %RPG0 %RPG1",
+						"moveRegMem %RPG1 &var1"));
+				try {
+					for (int i=0;i<200;i++) {
+						Architecture arch = pool.acquire();
+						arch.loadImage(image);
+						arch.controlUnitEexec();
+						assertEquals(input+7, arch.getMemory().readDirect(Isa.MEMORY_SIZE-1));
+						pool.release(arch);
+					}
+				}
+				catch (Throwable e) {
+					synchronized (errors) {
+						errors.add(e);
+					}
+				}
+			});
+			threads[t].start();
+		}
+		for (Thread thread:threads)
+			thread.join();
+		assertEquals(new ArrayList<Throwable>(), errors);
+		assertTrue(pool.getIdleCount() <= 4);
+	}
+
+}
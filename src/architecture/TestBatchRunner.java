@@ -0,0 +1,114 @@
+package architecture;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import assembler.Assembler;
+import assembler.TestTranslator;
+
+public class TestBatchRunner {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder(); //deleted after each test
+
+	/**
+	 * @param source
+	 * @return the executable of the source, ended by the end flag
+	 */
+	private static int[] exec(List<String> source) {
+		int image[] = Assembler.assemble(source);
+		int exec[] = Arrays.copyOf(image, image.length+1);
+		exec[image.length] = -1;
+		return exec;
+	}
+
+	@Test
+	public void testRun() throws IOException, InterruptedException {
+		File directory = folder.getRoot();
+		for (int i=0;i<20;i++) {
+			TestTranslator.writeExec(directory, "sum"+(char) ('a'+i), exec(Arrays.asList(
+					"var1",
+					"ldi %RPG0 "+i,
+					"moveImmReg 7 %RPG1",
+					"addRegReg %RPG0 %RPG1",
+					"moveRegMem %RPG1 &var1")));
+		}
+		//a program that never stops
+		TestTranslator.writeExec(directory, "loop", exec(Arrays.asList(
+				"start:",
+				"incReg %RPG2",
+				"jmp start")));
+		//a program that can't be read
+		BufferedWriter writer = new BufferedWriter(new FileWriter(new File(directory, "broken.dxf")));
+		writer.write("ldi");
+		writer.close();
+		
+		List<String> programs = BatchRunner.findPrograms(directory.getPath());
+		assertEquals(22, programs.size());
+		assertEquals(new File(directory, "broken").getPath(), programs.get(0));
+		
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			BatchRunner runner = new BatchRunner(executor, new ArchitecturePool(true, Isa.MEMORY_SIZE, false, 4), 1000);
+			List<BatchRunner.Result> results = runner.run(programs);
+			assertEquals(22, results.size());
+			
+			assertNotNull(results.get(0).getError());
+			
+			BatchRunner.Result loop = results.get(1);
+			assertNull(loop.getError());
+			assertFalse(loop.isFinished());
+			assertEquals(1000, loop.getExecuted());
+			assertEquals(500, loop.getRegister(2));
+			
+			for (int i=0;i<20;i++) {
+				BatchRunner.Result sum = results.get(i+2);
+				assertEquals(new File(directory, "sum"+(char) ('a'+i)).getPath(), sum.getProgram());
+				assertTrue(sum.isFinished());
+				assertEquals(4, sum.getExecuted());
+				assertEquals(i+7, sum.getRegister(1));
+				assertEquals(Isa.MEMORY_SIZE, sum.getMemoryEnd()); //var1 is the last position
+				//the same as executing the program alone
+				Architecture arch = new Architecture(false, false);
+				arch.readExec(sum.getProgram());
+				arch.controlUnitEexec();
+				int words[] = new int[Isa.MEMORY_SIZE];
+				arch.getMemory().copyOut(0, words, 0, words.length);
+				assertEquals(Arrays.hashCode(words), sum.getMemoryHash());
+			}
+			
+			//the results file has a line for each program, in the same order
+			File resultsFile = new File(directory, "results.txt");
+			assertEquals(22, runner.run(directory.getPath(), resultsFile.getPath()));
+			BufferedReader reader = new BufferedReader(new FileReader(resultsFile));
+			ArrayList<String> lines = new ArrayList<String>();
+			String line;
+			while ((line = reader.readLine()) != null)
+				lines.add(line);
+			reader.close();
+			assertEquals(22, lines.size());
+			for (int i=0;i<lines.size();i++)
+				assertEquals(results.get(i).toString(), lines.get(i));
+			assertTrue(lines.get(1).startsWith(programs.get(1)+" stopped 1000 "));
+		}
+		finally {
+			executor.shutdown();
+		}
+	}
+
+}
@@ -0,0 +1,165 @@
+package architecture;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TestBinaryExecutable {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder(); //deleted after each test
+
+	private static final int PROGRAM[] = {
+			24, 0, 5, //ldi %RPG0 5
+			14, 7, 1, //moveImmReg 7 %RPG1
+			0, 0, 1, //addRegReg %RPG0 %RPG1
+			12, 1, 120, //moveRegMem %RPG1 120
+			-1};
+
+	private Path write(File dir, int entry, int memorySize, int code[], int dataAddress, int data[]) throws IOException {
+		Path file = new File(dir, "program.dxb").toPath();
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			BinaryExecutable.write(channel, entry, memorySize, code, dataAddress, data);
+		}
+		return file;
+	}
+
+	@Test
+	public void testReadWrite() throws IOException {
+		File dir = folder.getRoot();
+		Path file = write(dir, 3, 128, PROGRAM, 100, new int[] {-2, 70000});
+		
+		//the words are little-endian
+		byte bytes[] = Files.readAllBytes(file);
+		assertEquals(BinaryExecutable.HEADER_SIZE+(PROGRAM.length+2)*4, bytes.length);
+		assertEquals('O', bytes[0]);
+		assertEquals('X', bytes[3]);
+		assertEquals(24, bytes[BinaryExecutable.HEADER_SIZE]);
+		
+		try (FileChannel channel = FileChannel.open(file)) {
+			BinaryExecutable executable = BinaryExecutable.read(channel);
+			assertEquals(3, executable.getEntry());
+			assertEquals(128, executable.getMemorySize());
+			assertEquals(100, executable.getDataAddress());
+			assertEquals(PROGRAM.length, executable.getCode().remaining());
+			for (int i=0;i<PROGRAM.length;i++)
+				assertEquals(PROGRAM[i], executable.getCode().get(i));
+			assertEquals(2, executable.getData().remaining());
+			assertEquals(-2, executable.getData().get(0));
+			assertEquals(70000, executable.getData().get(1));
+		}
+	}
+
+	@Test
+	public void testMap() throws IOException {
+		File dir = folder.getRoot();
+		Path file = write(dir, 3, 128, PROGRAM, 100, new int[] {-2, 70000});
+		
+		//the mapped executable has the same sections as the read one
+		try (FileChannel channel = FileChannel.open(file)) {
+			BinaryExecutable executable = BinaryExecutable.map(channel);
+			assertEquals(3, executable.getEntry());
+			assertEquals(100, executable.getDataAddress());
+			assertEquals(PROGRAM.length, executable.getCode().remaining());
+			for (int i=0;i<PROGRAM.length;i++)
+				assertEquals(PROGRAM[i], executable.getCode().get(i));
+			assertEquals(2, executable.getData().remaining());
+			assertEquals(70000, executable.getData().get(1));
+			
+			//copied into the memory at once
+			Architecture arch = new Architecture();
+			arch.getMemory().load(0, executable.getCode());
+			for (int i=0;i<PROGRAM.length;i++)
+				assertEquals(PROGRAM[i], arch.getMemory().getDataList()[i]);
+		}
+		
+		//a truncated file can't be mapped
+		byte bytes[] = Files.readAllBytes(file);
+		Files.write(file, Arrays.copyOf(bytes, bytes.length-4));
+		try (FileChannel channel = FileChannel.open(file)) {
+			BinaryExecutable.map(channel);
+			fail("the file is truncated");
+		}
+		catch (IOException e) {
+		}
+	}
+
+	@Test
+	public void testReadBinaryExec() throws IOException {
+		File dir = folder.getRoot();
+		write(dir, 0, 128, PROGRAM, 100, new int[] {-2, 70000});
+		String filename = new File(dir, "program").getPath();
+		
+		//the same executable must give the same result in both engines
+		for (boolean fast:new boolean[] {false, true}) {
+			Architecture arch = new Architecture(false, fast);
+			arch.readBinaryExec(filename);
+			for (int i=0;i<PROGRAM.length;i++)
+				assertEquals(PROGRAM[i], arch.getMemory().getDataList()[i]);
+			assertEquals(-2, arch.getMemory().getDataList()[100]);
+			assertEquals(70000, arch.getMemory().getDataList()[101]);
+			arch.controlUnitEexec();
+			assertEquals(12, arch.getMemory().getDataList()[120]);
+		}
+		
+		//the entry point is set into PC
+		write(dir, 3, 128, PROGRAM, 100, new int[0]);
+		Architecture arch = new Architecture();
+		arch.readBinaryExec(filename);
+		arch.getPC().read();
+		assertEquals(3, arch.getExtbus1().get());
+	}
+
+	@Test(expected = IOException.class)
+	public void testWrongMemorySize() throws IOException {
+		File dir = folder.getRoot();
+		write(dir, 0, 64, PROGRAM, 0, new int[0]);
+		new Architecture().readBinaryExec(new File(dir, "program").getPath());
+	}
+
+	@Test(expected = IOException.class)
+	public void testNotBinary() throws IOException {
+		File dir = folder.getRoot();
+		Files.write(new File(dir, "program.dxb").toPath(), "24\n0\n5\n-1".getBytes());
+		new Architecture().readBinaryExec(new File(dir, "program").getPath());
+	}
+
+	@Test(expected = IOException.class)
+	public void testTruncated() throws IOException {
+		File dir = folder.getRoot();
+		Path file = write(dir, 0, 128, PROGRAM, 0, new int[0]);
+		byte bytes[] = Files.readAllBytes(file);
+		Files.write(file, Arrays.copyOf(bytes, bytes.length-1));
+		new Architecture().readBinaryExec(new File(dir, "program").getPath());
+	}
+
+	@Test
+	public void testTruncatedLargeSections() throws IOException {
+		//the header declares 2^29 words of code (2^31 bytes, more than an int) in a file with only the header
+		File dir = folder.getRoot();
+		Path file = write(dir, 0, 1<<30, new int[0], 0, new int[0]);
+		byte bytes[] = Files.readAllBytes(file);
+		ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).putInt(4*Integer.BYTES, 1<<29); //the code length
+		Files.write(file, bytes);
+		try (FileChannel channel = FileChannel.open(file)) {
+			BinaryExecutable.read(channel);
+			fail("the file is truncated");
+		}
+		catch (IOException e) {
+			assertEquals("the binary executable is truncated", e.getMessage());
+		}
+	}
+
+}
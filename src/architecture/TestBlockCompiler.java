@@ -0,0 +1,122 @@
+package architecture;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class TestBlockCompiler {
+
+	/**
+	 * This method runs the program in the bus engine and in the functional engine
+	 * compiling every block, and checks both finish in the same state
+	 * @param program
+	 * @return the architecture using the compiled blocks
+	 */
+	private Architecture runBoth(int program[]) {
+		Architecture fast = new Architecture(false, true);
+		fast.enableBlockCompilation(1);
+		return TestFunctionalEngine.runBoth(program, fast);
+	}
+
+	@Test
+	public void testGenerate() {
+		Architecture arch = new Architecture(false, true);
+		//0: move 3 %RPG0
+		//3: inc %RPG0
+		//5: jmp 3
+		//7: end
+		int program[] = {14, 3, 0, 15, 0, 17, 3, -1};
+		arch.getMemory().load(0, program, 0, program.length);
+		DecodedProgram decoded = new DecodedProgram(arch.getMemory());
+		BlockCompiler compiler = new BlockCompiler();
+		String source = compiler.generate(decoded, 3, "Block3");
+		//the jump to the block start is a loop inside the block
+		assertTrue(source.contains("continue;"));
+		assertTrue(source.contains("return 7;"));
+		//a block can't start in the end of the program
+		assertNull(compiler.generate(decoded, 7, "Block7"));
+	}
+
+	@Test
+	public void testProgram() throws IOException {
+		//the fibonacci program (program.dxf) must finish in the same state with the compiled blocks
+		Architecture arch = new Architecture();
+		arch.readExec("program");
+		arch.controlUnitEexec();
+
+		Architecture fast = new Architecture(false, true);
+		fast.enableBlockCompilation(1);
+		fast.readExec("program");
+		fast.controlUnitEexec();
+
+		TestFunctionalEngine.assertSameState(arch, fast);
+		assertEquals(21, fast.getRPG().getData());
+	}
+
+	@Test
+	public void testLoop() {
+		//the block 3-11 loops inside the compiled class
+		//0: move 10 %RPG2
+		//3: inc %RPG1
+		//5: add %RPG1 &100
+		//8: jlw %RPG1 %RPG2 3
+		//12: end
+		int program[] = {14, 10, 2, 15, 1, 2, 1, 100, 23, 1, 2, 3, -1};
+		Architecture fast = runBoth(program);
+		assertEquals(55, fast.getMemory().getDataList()[100]); //1+2+...+10
+	}
+
+	@Test
+	public void testJumpToItself() {
+		//0: inc %RPG0
+		//2: jmp 0
+		Architecture arch = new Architecture(false, true);
+		int program[] = {15, 0, 17, 0};
+		arch.getMemory().load(0, program, 0, program.length);
+		CompiledBlock block = new BlockCompiler().compile(new DecodedProgram(arch.getMemory()), 0);
+		assertNotNull(block);
+		//the block never ends, but it gives the control back to the engine
+		int regs[] = new int[FunctionalEngine.FLAGS+1];
+		assertTrue(block.execute(regs, arch.getMemory()));
+		assertEquals(0, regs[FunctionalEngine.PC]);
+		assertTrue(regs[0] > 0);
+		int first = regs[0];
+		assertTrue(block.execute(regs, arch.getMemory()));
+		assertEquals(2*first, regs[0]);
+	}
+
+	@Test
+	public void testScratchPosition() {
+		//the block 11-16 stores 0 after the last free position, so imulRegMem must use it again
+		int program[] = Arrays.copyOf(new int[] {
+				24, 2, 3, //0: ldi %RPG2 3
+				24, 1, 0, //3: ldi %RPG1 0
+				9, 2, 100, //6: imul %RPG2 &100
+				17, 11, //9: jmp 11
+				12, 1, 127, //11: move %RPG1 &127
+				15, 1, //14: inc %RPG1
+				9, 2, 100, //16: imul %RPG2 &100
+				23, 1, 2, 11, //19: jlw %RPG1 %RPG2 11
+				-1}, 101);
+		program[100] = 2;
+		Architecture fast = runBoth(program);
+		assertEquals(162, fast.getMemory().getDataList()[100]);
+	}
+
+	@Test
+	public void testSelfModifyingProgram() {
+		//the block 7-12 changes the jump target in the block 3-5: the compiled block must be discarded
+		//0: move 5 %RPG0
+		//3: jmp 7
+		//5: end
+		//7: store %RPG0 4 (the jump target)
+		//10: jmp 3
+		int program[] = {14, 5, 0, 17, 7, -1, 0, 26, 0, 4, 17, 3};
+		Architecture fast = runBoth(program);
+		assertEquals(5, fast.getPC().getData());
+	}
+
+}
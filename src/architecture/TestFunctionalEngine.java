@@ -0,0 +1,124 @@
+package architecture;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class TestFunctionalEngine {
+
+	/**
+	 * This method checks if both architectures have the same registers, flags and memory
+	 * (also used by TestBlockCompiler and TestPrecompiledProgram)
+	 * @param expected
+	 * @param actual
+	 */
+	static void assertSameState(Architecture expected, Architecture actual) {
+		for (int i=0;i<6;i++) {
+			assertEquals(expected.getRegistersList().get(i).getData(), actual.getRegistersList().get(i).getData());
+		}
+		for (int i=0;i<3;i++) {
+			assertEquals(expected.getFlags().getBit(i), actual.getFlags().getBit(i));
+		}
+		assertArrayEquals(expected.getMemory().getDataList(), actual.getMemory().getDataList());
+	}
+
+	/**
+	 * This method runs the program in the bus engine and in the fast architecture,
+	 * and checks both finish in the same state (also used by TestBlockCompiler)
+	 * @param program the words stored from the position 0
+	 * @param fast
+	 * @return the fast architecture
+	 */
+	static Architecture runBoth(int program[], Architecture fast) {
+		Architecture arch = new Architecture();
+		arch.getMemory().load(0, program, 0, program.length);
+		fast.getMemory().load(0, program, 0, program.length);
+		arch.controlUnitEexec();
+		fast.controlUnitEexec();
+		assertSameState(arch, fast);
+		return fast;
+	}
+
+	@Test
+	public void testProgram() throws IOException {
+		//the fibonacci program (program.dxf) must finish in the same state in both engines
+		Architecture arch = new Architecture();
+		arch.readExec("program");
+		arch.controlUnitEexec();
+
+		Architecture fast = new Architecture(false, true);
+		fast.readExec("program");
+		fast.controlUnitEexec();
+
+		assertSameState(arch, fast);
+		//RPG0 has the 8th fibonacci number
+		assertEquals(21, fast.getRPG().getData());
+	}
+
+	@Test
+	public void testImul() {
+		//imulRegMem uses the last free position in the memory to keep the address
+		//program: move 3 %RPG1, imul %RPG1 &100, imul &100 %RPG1, end
+		int program[] = {14, 3, 1, 9, 1, 100, 8, 100, 1, -1};
+		Architecture arch = new Architecture();
+		Architecture fast = new Architecture(false, true);
+		arch.getMemory().load(0, program, 0, program.length);
+		fast.getMemory().load(0, program, 0, program.length);
+		arch.getMemory().getDataList()[100] = -7;
+		fast.getMemory().getDataList()[100] = -7;
+		arch.controlUnitEexec();
+		fast.controlUnitEexec();
+
+		assertSameState(arch, fast);
+		assertEquals(-21, fast.getMemory().getDataList()[100]);
+		assertEquals(-63, fast.getRPG1().getData());
+		assertEquals(1, fast.getFlags().getBit(1)); //the result is negative
+	}
+
+	@Test
+	public void testScratchPosition() {
+		//the stores of 0 after the last free position move it up, the other stores into it move it down
+		int program[] = Arrays.copyOf(new int[] {
+				24, 0, 3, //0: ldi %RPG0 3
+				24, 1, 0, //3: ldi %RPG1 0
+				9, 0, 100, //6: imul %RPG0 &100 (127 keeps 100)
+				9, 0, 100, //9: imul %RPG0 &100 (126 keeps 100)
+				12, 1, 127, //12: move %RPG1 &127
+				9, 0, 101, //15: imul %RPG0 &101 (127 keeps 101)
+				12, 1, 126, //18: move %RPG1 &126
+				9, 0, 101, //21: imul %RPG0 &101 (126 keeps 101)
+				-1}, 102);
+		program[100] = 2;
+		program[101] = 5;
+		Architecture fast = runBoth(program, new Architecture(false, true));
+		assertEquals(18, fast.getMemory().getDataList()[100]);
+		assertEquals(45, fast.getMemory().getDataList()[101]);
+		assertEquals(101, fast.getMemory().getDataList()[126]);
+		assertEquals(101, fast.getMemory().getDataList()[127]);
+	}
+
+	@Test
+	public void testDelegatedCommand() {
+		//move %RPG0 %IR can't be executed directly. The microprogram must be used
+		int program[] = {14, 5, 0, 13, 0, 5, -1};
+		runBoth(program, new Architecture(false, true));
+	}
+
+	@Test
+	public void testSelfModifyingProgram() {
+		//the program changes its own jump target: jmp 7 becomes jmp 5
+		//0: move 5 %RPG0
+		//3: jmp 7
+		//5: end
+		//7: store %RPG0 4 (the jump target)
+		//10: jmp 3
+		//using the old jmp 7 again would never finish the program
+		int program[] = {14, 5, 0, 17, 7, -1, 0, 26, 0, 4, 17, 3};
+		Architecture fast = runBoth(program, new Architecture(false, true));
+		assertEquals(5, fast.getPC().getData());
+	}
+
+}
@@ -0,0 +1,40 @@
+package architecture;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class TestIsa {
+
+	@Test
+	public void testCommands() {
+		//the architecture executes the commands of the Isa
+		Architecture arch = new Architecture();
+		assertEquals(Isa.getCommandsList(), arch.getCommandsList());
+		assertEquals(27, Isa.getCommandsCount());
+		assertEquals(0, Isa.getCommandId("addRegReg"));
+		assertEquals(26, Isa.getCommandId("store"));
+		assertEquals(-1, Isa.getCommandId("move")); //move has many formats: it isn't a command
+		assertEquals("RRA", Isa.getOperands(Isa.getCommandId("jeq")));
+		assertTrue(Isa.isCommand(26));
+		assertFalse(Isa.isCommand(-1));
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void testImmutable() {
+		Isa.getCommandsList().set(0, "add");
+	}
+
+	@Test
+	public void testRegisters() {
+		//the ids are the positions in the architecture registers list
+		Architecture arch = new Architecture();
+		for (int i=0;i<Isa.getRegistersCount();i++) {
+			assertEquals(arch.getRegistersList().get(i).getRegisterName(), Isa.getRegisterName(i));
+			assertEquals(i, Isa.getRegisterId(Isa.getRegisterName(i)));
+		}
+		assertEquals(-1, Isa.getRegisterId("RPG4"));
+		assertEquals(Isa.MEMORY_SIZE, arch.getMemorySize());
+	}
+
+}
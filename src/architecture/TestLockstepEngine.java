@@ -0,0 +1,199 @@
+package architecture;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import assembler.Assembler;
+
+public class TestLockstepEngine {
+
+	/**
+	 * This method checks each lane ends as the same program executed alone, with the same data
+	 * @param engine
+	 * @param source
+	 * @param position the position of the data
+	 * @param values the data of each lane
+	 * @param budget
+	 */
+	private void checkLanes(LockstepEngine engine, List<String> source, int position, int values[], long budget) {
+		int state[] = new int[FunctionalEngine.FLAGS+1];
+		for (int lane=0;lane<values.length;lane++) {
+			Architecture arch = new Architecture(false, true);
+			arch.loadImage(Assembler.assemble(source));
+			arch.getMemory().storeDirect(position, values[lane]);
+			assertEquals(arch.controlUnitEexec(budget), engine.isFinished(lane));
+			assertEquals(arch.getExecuted(), engine.getExecuted(lane));
+			FunctionalEngine.readRegisters(arch.getRegistersList(), state);
+			for (int id=0;id<state.length;id++)
+				assertEquals(state[id], engine.getRegister(lane, id));
+			for (int i=0;i<Isa.MEMORY_SIZE;i++)
+				assertEquals(arch.getMemory().readDirect(i), engine.read(lane, i));
+		}
+	}
+
+	@Test
+	public void testSweep() {
+		//var1 times 3 by a loop, the loop count depends on the lane
+		List<String> source = Arrays.asList(
+				"var1",
+				"moveMemReg &var1 %RPG0",
+				"ldi %RPG1 0",
+				"ldi %RPG2 0",
+				"jlw %RPG0 %RPG2 end",
+				"loop:",
+				"jeq %RPG0 %RPG2 end",
+				"incReg %RPG2",
+				"moveImmReg 3 %RPG3",
+				"addRegReg %RPG3 %RPG1",
+				"jmp loop",
+				"end:",
+				"moveRegMem %RPG1 &var1");
+		int values[] = new int[64];
+		for (int i=0;i<values.length;i++)
+			values[i] = (i*37)%20-2; //negative ones jump to the end at once
+		LockstepEngine engine = new LockstepEngine(values.length, Isa.MEMORY_SIZE);
+		engine.loadImage(Assembler.assemble(source));
+		engine.setData(Isa.MEMORY_SIZE-1, values);
+		engine.run(Long.MAX_VALUE);
+		assertTrue(engine.getSplits() > 0);
+		assertEquals(0, engine.getLanesAlone());
+		for (int lane=0;lane<values.length;lane++) {
+			assertTrue(engine.isFinished(lane));
+			assertEquals((values[lane] < 0) ? 0 : 3*values[lane], engine.read(lane, Isa.MEMORY_SIZE-1));
+		}
+		checkLanes(engine, source, Isa.MEMORY_SIZE-1, values, Long.MAX_VALUE);
+		
+		//the budget stops the longest loops
+		engine = new LockstepEngine(values.length, Isa.MEMORY_SIZE);
+		engine.loadImage(Assembler.assemble(source));
+		engine.setData(Isa.MEMORY_SIZE-1, values);
+		engine.run(40);
+		assertFalse(engine.isFinished(3)); //9 times
+		checkLanes(engine, source, Isa.MEMORY_SIZE-1, values, 40);
+	}
+
+	@Test
+	public void testBudgetAfterRegReg() {
+		//the budget stops the lanes right after the addRegReg, which doesn't read a word into IR
+		List<String> source = Arrays.asList(
+				"var1",
+				"moveMemReg &var1 %RPG0",
+				"ldi %RPG1 2",
+				"addRegReg %RPG0 %RPG1",
+				"subRegReg %RPG1 %RPG0");
+		int values[] = {5, -7, 0};
+		for (long budget=1;budget<=4;budget++) {
+			LockstepEngine engine = new LockstepEngine(values.length, Isa.MEMORY_SIZE);
+			engine.loadImage(Assembler.assemble(source));
+			engine.setData(Isa.MEMORY_SIZE-1, values);
+			engine.run(budget);
+			checkLanes(engine, source, Isa.MEMORY_SIZE-1, values, budget);
+		}
+		LockstepEngine engine = new LockstepEngine(values.length, Isa.MEMORY_SIZE);
+		engine.loadImage(Assembler.assemble(source));
+		engine.setData(Isa.MEMORY_SIZE-1, values);
+		engine.run(3);
+		assertEquals(0, engine.getRegister(0, FunctionalEngine.IR)); //the addRegReg command, not the 5 read before
+	}
+
+	@Test
+	public void testAlone() {
+		//imulRegMem is done by the microprogram, and the lanes with 0 in var1 store into the program
+		List<String> source = Arrays.asList(
+				"var1",
+				"var2",
+				"moveMemReg &var1 %RPG0",
+				"ldi %RPG2 0",
+				"jeq %RPG0 %RPG2 change",
+				"ldi %RPG1 5",
+				"imulRegMem %RPG1 &var1",
+				"jmp end",
+				"change:",
+				"ldi %RPG1 -1",
+				"moveRegMem %RPG1 &end",
+				"end:",
+				"incReg %RPG0");
+		int values[] = {0, 1, 2, 0, 4};
+		LockstepEngine engine = new LockstepEngine(values.length, Isa.MEMORY_SIZE);
+		engine.loadImage(Assembler.assemble(source));
+		engine.setData(Isa.MEMORY_SIZE-1, values);
+		engine.run(Long.MAX_VALUE);
+		assertEquals(values.length, engine.getLanesAlone());
+		assertEquals(10, engine.read(2, Isa.MEMORY_SIZE-1));
+		assertEquals(0, engine.getRegister(0, 0)); //the incReg was replaced by the end flag
+		checkLanes(engine, source, Isa.MEMORY_SIZE-1, values, Long.MAX_VALUE);
+		
+		//the lanes can't have different programs
+		try {
+			engine.store(0, 1, 3);
+			fail("the program is shared");
+		}
+		catch (IllegalArgumentException e) {
+		}
+	}
+
+	@Test
+	public void testLargeMemory() {
+		//the lanes split and run alone (imulRegMem) in a memory of many pages
+		int memorySize = 1<<22;
+		List<String> source = Arrays.asList(
+				"var1",
+				"moveMemReg &var1 %RPG0",
+				"ldi %RPG2 0",
+				"jeq %RPG0 %RPG2 end",
+				"ldi %RPG1 5",
+				"imulRegMem %RPG1 &var1",
+				"end:",
+				"incReg %RPG0");
+		int values[] = {0, 1, 2, 0, 4};
+		LockstepEngine engine = new LockstepEngine(values.length, memorySize);
+		engine.loadImage(Assembler.assemble(source));
+		engine.setData(Isa.MEMORY_SIZE-1, values);
+		engine.run(Long.MAX_VALUE);
+		assertEquals(1, engine.getSplits());
+		assertEquals(3, engine.getLanesAlone());
+		int state[] = new int[FunctionalEngine.FLAGS+1];
+		for (int lane=0;lane<values.length;lane++) {
+			Architecture arch = new Architecture(false, true, memorySize);
+			arch.loadImage(Assembler.assemble(source));
+			arch.getMemory().storeDirect(Isa.MEMORY_SIZE-1, values[lane]);
+			assertTrue(arch.controlUnitEexec(Long.MAX_VALUE));
+			FunctionalEngine.readRegisters(arch.getRegistersList(), state);
+			for (int id=0;id<state.length;id++)
+				assertEquals(state[id], engine.getRegister(lane, id));
+			for (int i=0;i<Isa.MEMORY_SIZE;i++)
+				assertEquals(arch.getMemory().readDirect(i), engine.read(lane, i));
+			//the address kept by imulRegMem in the last position
+			assertEquals(arch.getMemory().readDirect(memorySize-1), engine.read(lane, memorySize-1));
+		}
+		assertEquals(Isa.MEMORY_SIZE-1, engine.read(2, memorySize-1));
+		assertEquals(10, engine.read(2, Isa.MEMORY_SIZE-1));
+	}
+
+	@Test
+	public void testReadExecTooLong() throws IOException {
+		File file = File.createTempFile("long", ".dxf");
+		file.deleteOnExit();
+		BufferedWriter writer = new BufferedWriter(new FileWriter(file));
+		for (int i=0;i<=Isa.MEMORY_SIZE;i++) {
+			writer.write("0");
+			writer.newLine();
+		}
+		writer.close();
+		try {
+			new LockstepEngine(2, Isa.MEMORY_SIZE).readExec(file.getPath().substring(0, file.getPath().length()-".dxf".length()));
+			fail("the file doesn't fit in the memory");
+		}
+		catch (IOException e) {
+		}
+	}
+
+}
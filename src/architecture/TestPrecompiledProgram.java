@@ -0,0 +1,122 @@
+package architecture;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import assembler.TestTranslator;
+import assembler.Translator;
+
+public class TestPrecompiledProgram {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder(); //deleted after each test
+
+	/**
+	 * This method runs the executable in the architecture and with its precompiled class,
+	 * checking both finish in the same state
+	 * @param filename
+	 * @return the architecture using the precompiled class
+	 * @throws IOException
+	 */
+	private Architecture runBoth(String filename) throws IOException {
+		new Translator(128).translate(filename);
+		Architecture arch = new Architecture();
+		arch.readExec(filename);
+		arch.controlUnitEexec();
+
+		Architecture precompiled = new Architecture();
+		precompiled.loadPrecompiled(filename);
+		precompiled.readExec(filename);
+		precompiled.controlUnitEexec();
+
+		TestFunctionalEngine.assertSameState(arch, precompiled);
+		return precompiled;
+	}
+
+	@Test
+	public void testClassName() {
+		assertEquals("ProgramExec", PrecompiledProgram.className("program"));
+		assertEquals("My_programExec", PrecompiledProgram.className("dir/my-program"));
+	}
+
+	@Test
+	public void testProgram() throws IOException {
+		//the fibonacci program
+		int program[] = {14, 0, 0, 14, 1, 1, 14, 8, 2, 14, 1, 3, 12, 3, 127, 13, 1, 3, 0, 0, 1,
+				13, 3, 0, 6, 2, 127, 11, 127, 2, 14, 1, 3, 12, 3, 127, 20, 15, -1};
+		Architecture arch = runBoth(TestTranslator.writeExec(folder.newFolder(), program));
+		assertEquals(21, arch.getRPG().getData());
+	}
+
+	@Test
+	public void testImul() throws IOException {
+		//move 3 %RPG1, move %RPG1 &100, imul %RPG1 &100, end
+		Architecture arch = runBoth(TestTranslator.writeExec(folder.newFolder(), new int[] {14, 3, 1, 12, 1, 100, 9, 1, 100, -1}));
+		assertEquals(9, arch.getMemory().getDataList()[100]);
+	}
+
+	@Test
+	public void testSelfModifyingProgram() throws IOException {
+		//the store into the jump target is left to the architecture
+		//0: move 5 %RPG0
+		//3: jmp 7
+		//5: end
+		//7: store %RPG0 4 (the jump target)
+		//10: jmp 3
+		Architecture arch = runBoth(TestTranslator.writeExec(folder.newFolder(), new int[] {14, 5, 0, 17, 7, -1, 0, 26, 0, 4, 17, 3}));
+		assertEquals(5, arch.getPC().getData());
+	}
+
+	@Test
+	public void testOffTheEnd() throws IOException {
+		//a program without the end flag runs until the end of the memory, and stops there
+		int program[] = new int[128];
+		for (int i=0;i<program.length;i+=2)
+			program[i] = 15; //incReg %RPG0
+		Architecture arch = runBoth(TestTranslator.writeExec(folder.newFolder(), program));
+		assertEquals(64, arch.getRPG().getData());
+		assertEquals(128, arch.getPC().getData());
+	}
+
+	@Test
+	public void testLoader() throws IOException {
+		//the architecture runs the precompiled program with the same image hash
+		String filename = TestTranslator.writeExec(folder.newFolder(), new int[] {14, 5, 0, -1});
+		Architecture arch = new Architecture();
+		arch.addPrecompiled(new PrecompiledProgram() {
+			public boolean run(int regs[], int mem[]) {
+				regs[0] = 42;
+				return true;
+			}
+			public long getImageHash() {
+				return PrecompiledProgram.imageHash(new int[] {14, 5, 0, -1}, 4, 128);
+			}
+		});
+		arch.readExec(filename);
+		arch.controlUnitEexec();
+		assertEquals(42, arch.getRPG().getData());
+	}
+
+	@Test
+	public void testOtherImage() throws IOException {
+		//the precompiled class is not used by a different program
+		String filename = TestTranslator.writeExec(folder.newFolder(), new int[] {14, 5, 0, -1});
+		new Translator(128).translate(filename);
+		Architecture arch = new Architecture();
+		arch.loadPrecompiled(filename);
+		BufferedWriter writer = new BufferedWriter(new FileWriter(filename+".dxf"));
+		writer.write("14\n7\n0\n-1");
+		writer.close();
+		arch.readExec(filename);
+		arch.controlUnitEexec();
+		assertEquals(7, arch.getRPG().getData());
+	}
+
+}
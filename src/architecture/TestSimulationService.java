@@ -0,0 +1,87 @@
+package architecture;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import org.junit.Test;
+
+import assembler.Assembler;
+
+public class TestSimulationService {
+
+	@Test
+	public void testSubmit() throws InterruptedException, ExecutionException {
+		SimulationService service = new SimulationService(new ArchitecturePool(true, Isa.MEMORY_SIZE, false, 4));
+		assertEquals(SimulationService.newVirtualThreadExecutor() != null, service.usesVirtualThreads());
+		//the program adds the data in var1 (the last position) to the input
+		ArrayList<CompletableFuture<BatchRunner.Result>> futures = new ArrayList<>();
+		for (int i=0;i<50;i++) {
+			int image[] = Assembler.assemble(Arrays.asList(
+					"var1",
+					"ldi %RPG0 "+i,
+					"moveMemReg &var1 %RPG1",
+					"addRegReg %RPG0 %RPG1"));
+			futures.add(service.submit("sim"+i, image, Isa.MEMORY_SIZE-1, new int[] {1000}, Long.MAX_VALUE));
+		}
+		for (int i=0;i<50;i++) {
+			BatchRunner.Result result = futures.get(i).get();
+			assertEquals("sim"+i, result.getProgram());
+			assertTrue(result.isFinished());
+			assertEquals(1000+i, result.getRegister(1));
+		}
+		
+		//a program stopped by the budget
+		int loop[] = Assembler.assemble(Arrays.asList("start:", "incReg %RPG2", "jmp start"));
+		BatchRunner.Result result = service.submit("loop", loop, 0, null, 10).get();
+		assertFalse(result.isFinished());
+		assertEquals(5, result.getRegister(2));
+		
+		//the data doesn't fit in the memory
+		try {
+			service.submit("big", loop, Isa.MEMORY_SIZE-1, new int[2], 10).get();
+			fail("the data doesn't fit");
+		}
+		catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof IndexOutOfBoundsException);
+		}
+		service.shutdown();
+	}
+
+	@Test
+	public void testRequest() throws InterruptedException {
+		SimulationService service = new SimulationService(new ArchitecturePool(true, Isa.MEMORY_SIZE, false, 2));
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		PrintStream out = new PrintStream(bytes);
+		assertTrue(service.request("run a 100 24,0,3", out)); //ldi %RPG0 3
+		assertTrue(service.request("run b 100 11,100,1 100 7", out)); //moveMemReg &100 %RPG1
+		assertTrue(service.request("exec c 100 nonexistent", out));
+		assertTrue(service.request("jump d", out));
+		assertTrue(service.request("", out));
+		assertFalse(service.request("quit", out));
+		service.shutdown();
+		
+		//the results come in any order
+		String lines[] = bytes.toString().split("\\R");
+		assertEquals(4, lines.length);
+		HashSet<String> starts = new HashSet<String>();
+		for (String line:lines) {
+			String tokens[] = line.split(" ");
+			starts.add(tokens[0]+" "+tokens[1]);
+		}
+		assertEquals(new HashSet<String>(Arrays.asList("a finished", "b finished", "c error", "d error")), starts);
+		for (String line:lines) {
+			if (line.startsWith("a "))
+				assertTrue(line.startsWith("a finished 1 RPG0=3 RPG1=0 "));
+			if (line.startsWith("b "))
+				assertTrue(line.startsWith("b finished 1 RPG0=0 RPG1=7 "));
+		}
+	}
+
+}
@@ -3,45 +3,68 @@ package assembler;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import org.hamcrest.core.IsNull;
 
-import components.Register;
-
-import architecture.Architecture;
+import architecture.BinaryExecutable;
+import architecture.Isa;
 
 public class Assembler {
 	
+	private static final int STREAM_BUFFER_SIZE = 1<<16; //bytes buffered by the streaming mode
+	private static final int PARALLEL_CHUNK_LINES = 4096; //lines parsed by each task in the parallel mode
+	
 	private ArrayList<String> lines;
-	private ArrayList<String> objProgram;
-	private ArrayList<String> execProgram;
-	private Architecture arch;
-	private ArrayList<String>commands;	
-	private ArrayList<String>labels;
-	private ArrayList<Integer> labelsAdresses;
-	private ArrayList<String>variables;
+	private ObjectProgram objProgram;
+	private int execProgram[];
+	private HashMap<String, Integer> labels; //the labels and the addresses they refer to
+	private LinkedHashMap<String, Integer> variables; //the variables (in the declaration order) and their addresses
+	private int memorySize; //the variables are allocated from the end of the memory
+	private int emitted; //words already written out by the streaming mode
+	private LinkedHashMap<String, Positions> pending; //streaming mode: the symbols not known yet and the positions using them
 	
 	
 	public Assembler() {
+		this(Isa.MEMORY_SIZE);
+	}
+	
+	/**
+	 * Constructor for programs that will run on a memory with other size
+	 * (see the Architecture constructors)
+	 * @param memorySize
+	 */
+	public Assembler(int memorySize) {
+		this.memorySize = memorySize;
 		lines = new ArrayList<>();
-		labels = new ArrayList<>();
-		labelsAdresses = new ArrayList<>();
-		variables = new ArrayList<>();
-		objProgram = new ArrayList<>();
-		execProgram = new ArrayList<>();
-		arch = new Architecture();
-		commands = arch.getCommandsList();	
+		labels = new HashMap<>();
+		variables = new LinkedHashMap<>();
+		objProgram = new ObjectProgram();
+		execProgram = new int[0];
+		pending = new LinkedHashMap<>();
 	}
 	
 	//getters
 	
-	public ArrayList<String> getObjProgram() {
+	public ObjectProgram getObjProgram() {
 		return objProgram;
 	}
 	
@@ -50,19 +73,15 @@ public class Assembler {
 	 * @param lines
 	 */
 	
-	protected ArrayList<String> getLabels() {
+	protected HashMap<String, Integer> getLabels() {
 		return labels;
 	}
 	
-	protected ArrayList<Integer> getLabelsAddresses() {
-		return labelsAdresses;
-	}
-	
-	protected ArrayList<String> getVariables() {
+	protected LinkedHashMap<String, Integer> getVariables() {
 		return variables;
 	}
 	
-	protected ArrayList<String> getExecProgram() {
+	protected int[] getExecProgram() {
 		return execProgram;
 	}
 	
@@ -70,8 +89,8 @@ public class Assembler {
 		this.lines = lines;
 	}	
 
-	protected void setExecProgram(ArrayList<String> lines) {
-		this.execProgram = lines;
+	protected void setExecProgram(int program[]) {
+		this.execProgram = program;
 	}	
 	
 	
@@ -115,345 +134,312 @@ public class Assembler {
 	 * @param lines
 	 */
 	public void parse() {
-		for (String s:lines) {
-			String tokens[] = s.split(" ");
-			if (findCommandNumber(tokens)>=0) { //the line is a command
-				proccessCommand(tokens);
-			}
-			else { //the line is not a command: so, it can be a variable or a label
-				if (tokens[0].endsWith(":")){ //if it ends with : it is a label
-					String label = tokens[0].substring(0, tokens[0].length()-1); //removing the last character
-					labels.add(label);
-					labelsAdresses.add(objProgram.size());
-				}
-				else //otherwise, it must be a variable
-					variables.add(tokens[0]);
-			}
+		parse(lines);
+	}
+
+	private void parse(List<String> source) {
+		LineScanner scanner = new LineScanner(); //the same scanner is used for all the lines
+		for (String s:source) {
+			parseLine(scanner, s);
 		}
 		
 	}
 
-
+	/**
+	 * This method does the same as parse, but using all the cores of the machine
+	 * (see parseParallel(ForkJoinPool, int))
+	 */
+	public void parseParallel() {
+		parseParallel(ForkJoinPool.commonPool(), PARALLEL_CHUNK_LINES);
+	}
 
 	/**
-	 * This method processes a command, putting it and its parameters (if they have)
-	 * into the final array
-	 * @param tokens
+	 * This method does the same as parse, but splitting the lines in chunks parsed at the same time.
+	 * Each chunk is parsed by its own assembler, so it has its own object program, labels
+	 * (with positions in the chunk) and variables (in the declaration order in the chunk).
+	 * Then the chunks are merged, in order: the labels are moved by the words before the chunk and
+	 * the variables are declared again, so they get the same addresses as in parse.
+	 * The labels and variables used are replaced only by makeExecutable, after the merge
+	 * @param pool
+	 * @param chunkLines the amount of lines in each chunk
 	 */
-	protected void proccessCommand(String[] tokens) {
-		String command = tokens[0];
-		String parameter ="";
-		String parameter2 = "";
-		String parameter3 = "";
-		int commandNumber = findCommandNumber(tokens);
-		if (commandNumber == 0) { //must to proccess an addRegReg command
-			parameter = tokens[1];
-			parameter2 = tokens[2]; 
-		}
-		if (commandNumber == 1) { //must to proccess an addMemReg command
-			parameter = "&" + tokens[1];
-			parameter2 = tokens[2];
-		}
-		if (commandNumber == 2) { //must to proccess an addRegMem command
-			parameter = tokens[1];
-			parameter2 = "&" + tokens[2];
-		}
-		if (commandNumber == 3) { //must to proccess an addImmMem command
-			parameter = tokens[1];
-			parameter2 = "&" + tokens[2];
-		}
-		if (commandNumber == 4) { //must to proccess an subRegReg command
-			parameter = tokens[1];
-			parameter2 = tokens[2];
-		}
-		if (commandNumber == 5) { //must to proccess an subMemReg command
-			parameter = "&" + tokens[1];
-			parameter2 = tokens[2];
-		}
-		if (commandNumber == 6) { //must to proccess an subRegMem command
-			parameter = tokens[1];
-			parameter2 = "&" + tokens[2];
-		}
-		if (commandNumber == 7) { //must to proccess an subImmMem command
-			parameter = tokens[1];
-			parameter2 = "&" + tokens[2];
-		}
-		if (commandNumber == 8) { //must to proccess an imulMemReg command
-			parameter = "&" + tokens[1];
-			parameter2 = tokens[2];
-		}
-		if (commandNumber == 9) { //must to proccess an imulRegMem command
-			parameter = tokens[1];
-			parameter2 = "&" + tokens[2];
-		}
-		if (commandNumber == 10) { //must to proccess an imulRegReg command
-			parameter = tokens[1];
-			parameter2 = tokens[2];
-		}
-		if (commandNumber == 11) { //must to proccess an moveMemReg command
-			parameter = tokens[1];
-			parameter2 = tokens[2];
-		}
-		if (commandNumber == 12) { //must to proccess an moveRegMem command
-			parameter = tokens[1];
-			parameter2 = "&" + tokens[2];
-		}
-		if (commandNumber == 13) { //must to proccess an moveRegReg command
-			parameter = tokens[1];
-			parameter2 = tokens[2];
-		}
-		if (commandNumber == 14) { //must to proccess an moveImmReg command
-			parameter = tokens[1];
-			parameter2 = tokens[2];
-		}
-		if (commandNumber == 15) { //must to proccess an incReg command
-			parameter = tokens[1];
-		}
-		if (commandNumber == 16) { //must to proccess an incMem command
-			parameter = tokens[1];
-			parameter = "&"+parameter;//this is a flag to indicate that is a position in memory
-		}
-		if (commandNumber == 17) { //must to proccess an jmp command
-			parameter = tokens[1];
-			parameter = "&"+parameter;//this is a flag to indicate that is a position in memory
-		}
-		if (commandNumber == 18) { //must to proccess an jn command
-			parameter = tokens[1];
-			parameter = "&"+parameter;//this is a flag to indicate that is a position in memory
-		}
-		if (commandNumber == 19) { //must to proccess an jz command
-			parameter = tokens[1];
-			parameter = "&"+parameter;//this is a flag to indicate that is a position in memory
-		}
-		if (commandNumber == 20) { //must to proccess an jnz command
-			parameter = tokens[1];
-			parameter = "&"+parameter;//this is a flag to indicate that is a position in memory
-		}
-		if (commandNumber == 21) { //must to proccess an jeq command
-			parameter = tokens[1];
-			parameter2 = tokens[2];
-			parameter3 = tokens[3];
-			parameter3 = "&" + parameter3;
-		}
-		if (commandNumber == 22) { //must to proccess an jgt command
-			parameter = tokens[1];
-			parameter2 = tokens[2];
-			parameter3 = tokens[3];
-			parameter3 = "&" + parameter3;
-		}
-		if (commandNumber == 23) { //must to proccess an jlw command
-			parameter = tokens[1];
-			parameter2 = tokens[2];
-			parameter3 = tokens[3];
-			parameter3 = "&" + parameter3;
-		}
-		if (commandNumber == 24) { //must to proccess an ldi command
-			parameter = tokens[1];
-			parameter2 = tokens[2];
-		}
-		if (commandNumber == 25) { //must to proccess an read command
-			parameter = tokens[1];
-			parameter = "&" + parameter;
-			parameter2 = tokens[2];
+	public void parseParallel(ForkJoinPool pool, int chunkLines) {
+		Assembler chunks[] = new Assembler[(lines.size()+chunkLines-1)/chunkLines];
+		if (chunks.length == 0)
+			return;
+		pool.invoke(new ParseTask(lines, chunkLines, chunks, 0, chunks.length));
+		for (Assembler chunk:chunks) {
+			int offset = objProgram.size();
+			for (Map.Entry<String, Integer> label:chunk.labels.entrySet())
+				labels.put(label.getKey(), label.getValue()+offset);
+			for (String var:chunk.variables.keySet())
+				addVariable(var);
+			objProgram.append(chunk.objProgram);
 		}
-		if (commandNumber == 26) { //must to proccess an store command
-			parameter = tokens[1];
-			parameter2 = tokens[2];
-			parameter2 = "&" + parameter2;
+	}
+
+	/**
+	 * This task parses the chunks from first to last (exclusive), splitting them in two tasks
+	 * while there is more than one
+	 */
+	private static class ParseTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private List<String> lines;
+		private int chunkLines;
+		private Assembler chunks[];
+		private int first;
+		private int last;
+
+		private ParseTask(List<String> lines, int chunkLines, Assembler chunks[], int first, int last) {
+			this.lines = lines;
+			this.chunkLines = chunkLines;
+			this.chunks = chunks;
+			this.first = first;
+			this.last = last;
 		}
-		objProgram.add(Integer.toString(commandNumber));
-		if (!parameter.isEmpty()) {
-			objProgram.add(parameter);
+
+		@Override
+		protected void compute() {
+			if (last-first == 1) {
+				Assembler chunk = new Assembler(); //the variables get their addresses in the merge
+				chunk.parse(lines.subList(first*chunkLines, Math.min(lines.size(), (first+1)*chunkLines)));
+				chunks[first] = chunk;
+			}
+			else {
+				int middle = (first+last)/2;
+				invokeAll(new ParseTask(lines, chunkLines, chunks, first, middle),
+						new ParseTask(lines, chunkLines, chunks, middle, last));
+			}
 		}
-		if (!parameter2.isEmpty()) {
-			objProgram.add(parameter2);
+	}
+
+	/**
+	 * This method generates the machine code of a single line
+	 * @param scanner
+	 * @param line
+	 */
+	protected void parseLine(LineScanner scanner, String line) {
+		scanner.scan(line);
+		if (scanner.count() == 0) //empty line
+			return;
+		int commandNumber = findCommandNumber(scanner);
+		if (commandNumber>=0) { //the line is a command
+			proccessCommand(scanner, commandNumber);
 		}
-		if (!parameter3.isEmpty()) {
-			objProgram.add(parameter3);
+		else { //the line is not a command: so, it can be a variable or a label
+			if (scanner.kind(0) == LineScanner.LABEL) //if it ends with : it is a label
+				labels.put(scanner.name(0), emitted+objProgram.size());
+			else //otherwise, it must be a variable
+				addVariable(scanner.text(0));
 		}
 	}
-	
+
+
 
 	/**
-	 * This method uses the tokens to search a command
-	 * in the commands list and returns its id.
-	 * Some commands (as move) can have multiple formats (reg reg, mem reg, reg mem) and
-	 * multiple ids, one for each format.
+	 * This method processes a command, putting it and its parameters (if they have)
+	 * into the final array
 	 * @param tokens
-	 * @return
 	 */
-	private int findCommandNumber(String[] tokens) {
-		int p = commands.indexOf(tokens[0]);
-		if (p<0){ //the command isn't in the list. So it must have multiple formats
-			if ("move".equals(tokens[0])) //the command is a move
-				p = proccessMove(tokens);
-			if("add".equals(tokens[0]))
-				p = proccessAdd(tokens);
-			if("imul".equals(tokens[0]))
-				p = proccessImul(tokens);
-			if("sub".equals(tokens[0]))
-				p = proccessSub(tokens);
-			if("inc".equals(tokens[0]))
-				p = proccessInc(tokens);
-		}
-		return p;
+	protected void proccessCommand(String[] tokens) {
+		StringBuilder line = new StringBuilder();
+		for (String token:tokens) {
+			if (token != null)
+				line.append(token).append(' ');
+		}
+		LineScanner scanner = new LineScanner();
+		scanner.scan(line.toString());
+		proccessCommand(scanner, findCommandNumber(scanner));
 	}
 
 	/**
-	 * This method proccess a move command.
-	 * It must have differents formats, meaning differents internal commands
-	 * @param tokens
-	 * @return
+	 * This method processes the command in the scanned line, putting it and its parameters
+	 * into the object program. The operands are encoded according their kinds in the Isa:
+	 * memory positions and jump targets are labels or variables; registers and immediate values
+	 * are numbers
+	 * @param scanner
+	 * @param commandNumber
 	 */
-	private int proccessMove(String[] tokens) {
-		String p1 = tokens[1];
-		String p2 = tokens[2];
-		int p=-1;
-		if ((p1.startsWith("%"))&&(p2.startsWith("%"))) { //this is a moveRegReg comand
-			p = commands.indexOf("moveRegReg");
-		}else { 
-			if((p1.startsWith("&"))&& (p2.startsWith("%"))) { //this is a moveMemReg comand
-				p = commands.indexOf("moveMemReg");
-			}else {
-				if (p1.startsWith("%")) { //this is a moveRegMem comand
-					p2 = "&" + p2;
-					p = commands.indexOf("moveRegMem");
-				}else {
-					p2 = "&" + p2;
-					p = commands.indexOf("moveImmReg");
-				}
+	protected void proccessCommand(LineScanner scanner, int commandNumber) {
+		objProgram.add(commandNumber);
+		String operands = Isa.getOperands(commandNumber);
+		for (int i=0;i<operands.length();i++) {
+			int token = i+1;
+			int kind = scanner.kind(token);
+			if (kind == LineScanner.NONE)
+				throw new IllegalArgumentException("missing operand in "+scanner.text(0));
+			char operand = operands.charAt(i);
+			if ((operand == 'M')||(operand == 'A')||(kind == LineScanner.MEMORY)||(kind == LineScanner.NAME)) {
+				//this is a flag to indicate that is a position in memory
+				if (kind == LineScanner.MEMORY)
+					objProgram.addSymbol(scanner.name(token));
+				else
+					objProgram.addSymbol(scanner.text(token));
 			}
+			else if (kind == LineScanner.REGISTER)
+				objProgram.add(scanner.registerId(token));
+			else
+				objProgram.add(scanner.intValue(token));
 		}
-		return p;
 	}
-	
-	private int proccessAdd(String[] tokens) {
-		String p1 = tokens[1];
-		String p2 = tokens[2];
-		int p=-1;
-		if ((p1.startsWith("%"))&&(p2.startsWith("%"))) { //this is a addRegReg comand
-			p = commands.indexOf("addRegReg");
-		}else {
-			if (p2.startsWith("%")) { //this is a addMemReg comand
-				p1 = "&" + p1;
-				p = commands.indexOf("addMemReg");
-			}else {
-				if (p1.startsWith("%")) { //this is a addRegMem comand
-					p2 = "&" + p2;
-					p = commands.indexOf("addRegMem");
-				}else {
-					p = commands.indexOf("addImmMem");
-				}
-			}
-		}
-		return p;
+
+	/**
+	 * This method adds an operand into the object program.
+	 * Registers names (prefixed by %) are replaced by their ids.
+	 * Labels and variables (prefixed by &) are kept in the relocation table,
+	 * so they are replaced without scanning the whole program
+	 * @param word
+	 */
+	protected void addWord(String word) {
+		if (word.startsWith("&"))
+			objProgram.addSymbol(word.substring(1));
+		else if (word.startsWith("%"))
+			objProgram.add(Isa.getRegisterId(word.substring(1)));
+		else
+			objProgram.add(Integer.parseInt(word));
+	}
+
+	/**
+	 * This method declares a variable.
+	 * The addresses of the variables start in the end of the memory
+	 * and decrease (creating a stack)
+	 * @param var
+	 */
+	protected void addVariable(String var) {
+		if (!variables.containsKey(var))
+			variables.put(var, memorySize-1-variables.size());
 	}
 	
-	private int proccessSub(String[] tokens) {
-		String p1 = tokens[1];
-		String p2 = tokens[2];
-		int p=-1;
-		if ((p1.startsWith("%"))&&(p2.startsWith("%"))) { //this is a addRegReg comand
-			p = commands.indexOf("subRegReg");
-		}else {
-			if (p2.startsWith("%")) { //this is a subMemReg comand
-				p1 = "&" + p1;
-				p = commands.indexOf("subMemReg");
-			}else {
-				if (p1.startsWith("%")) { //this is a subRegMem comand
-					p2 = "&" + p2;
-					p = commands.indexOf("subRegMem");
-				}else { //this is a subImmMem comand
-					p = commands.indexOf("subImmMem");	
-				}
+
+	/**
+	 * This method uses the tokens to search a command
+	 * in the instruction set (Isa) and returns its id.
+	 * Some commands (as move) can have multiple formats (reg reg, mem reg, reg mem) and
+	 * multiple ids, one for each format. The format is found by the operands kinds.
+	 * @param scanner
+	 * @return
+	 */
+	private int findCommandNumber(LineScanner scanner) {
+		int p = scanner.commandId(0);
+		if (p<0){ //the command isn't in the list. So it must have multiple formats
+			boolean reg1 = scanner.kind(1) == LineScanner.REGISTER;
+			boolean reg2 = scanner.kind(2) == LineScanner.REGISTER;
+			if (scanner.is(0, "move")) { //the command is a move
+				if (reg1 && reg2) //this is a moveRegReg comand
+					p = Isa.getCommandId("moveRegReg");
+				else if ((scanner.kind(1) == LineScanner.MEMORY) && reg2) //this is a moveMemReg comand
+					p = Isa.getCommandId("moveMemReg");
+				else if (reg1) //this is a moveRegMem comand
+					p = Isa.getCommandId("moveRegMem");
+				else
+					p = Isa.getCommandId("moveImmReg");
 			}
-		}
-		return p;
-	}
-	private int proccessImul(String[] tokens) {
-		String p1 = tokens[1];
-		String p2 = tokens[2];
-		int p=-1;
-		if ((p1.startsWith("%"))&&(p2.startsWith("%"))) { //this is a imulRegReg comand
-			p = commands.indexOf("imulRegReg");
-		}else {
-			if (p2.startsWith("%")) { //this is a imulMemReg comand
-				p1 = "&" + p1;
-				p = commands.indexOf("imulMemReg");
-			}else {
-				if (p1.startsWith("%")) { //this is a imulRegMem comand
-					p2 = "&" + p2;
-					p = commands.indexOf("imulRegMem");
-				}
+			if (scanner.is(0, "add"))
+				p = arithmeticFormat("add", reg1, reg2);
+			if (scanner.is(0, "sub"))
+				p = arithmeticFormat("sub", reg1, reg2);
+			if (scanner.is(0, "imul")) {
+				p = arithmeticFormat("imul", reg1, reg2);
+				if ((!reg1)&&(!reg2)) //imul has no ImmMem format
+					p = -1;
+			}
+			if (scanner.is(0, "inc")) {
+				if (reg1) //this is a incReg comand
+					p = Isa.getCommandId("incReg");
+				else
+					p = Isa.getCommandId("incMem");
 			}
 		}
 		return p;
 	}
-	
-	private int proccessInc(String[] tokens) {
-		String p1 = tokens[1];
-		int p=-1;
-		if (p1.startsWith("%")) { //this is a addRegReg comand
-			p = commands.indexOf("incReg");
-		}else {
-			p1 = "&" + p1;
-			p = commands.indexOf("incMem");
-		}
-		return p;
+
+	/**
+	 * This method finds the format of an add, sub or imul command
+	 * @param command
+	 * @param reg1 true if the first operand is a register
+	 * @param reg2 true if the second operand is a register
+	 * @return
+	 */
+	private int arithmeticFormat(String command, boolean reg1, boolean reg2) {
+		if (reg1 && reg2)
+			return Isa.getCommandId(command+"RegReg");
+		if (reg2)
+			return Isa.getCommandId(command+"MemReg");
+		if (reg1)
+			return Isa.getCommandId(command+"RegMem");
+		return Isa.getCommandId(command+"ImmMem");
 	}
 
 	/**
 	 * This method creates the executable program from the object program
 	 * Step 1: check if all variables and labels mentioned in the object 
 	 * program are declared in the source program
-	 * Step 2: allocate memory addresses (space), from the end to the begin (stack)
-	 * to store variables
-	 * Step 3: identify memory positions to the labels
-	 * Step 4: make the executable by replacing the labels and the variables by the
-	 * corresponding memory addresses 
+	 * Step 2: make the executable by replacing the labels and the variables by the
+	 * corresponding memory addresses (the variables addresses were allocated
+	 * and the labels positions were identified by the parse)
 	 * @param filename 
 	 * @throws IOException 
 	 */
 	public void makeExecutable(String filename) throws IOException {
-		if (!checkLabels())
+		System.out.println("Checking labels and variables");
+		if (makeExecutable() == null)
 			return;
-		execProgram = (ArrayList<String>) objProgram.clone();
-		replaceAllVariables();
-		replaceLabels(); //replacing all labels by the address they refer to
-		replaceRegisters(); //replacing all registers by the register id they refer to
 		saveExecFile(filename);
 		System.out.println("Finished");
 	}
 
 	/**
-	 * This method replaces all the registers names by its correspondings ids.
-	 * registers names must be prefixed by %
+	 * This method does the same as makeExecutable, but saving the binary executable
+	 * (see architecture.BinaryExecutable) into filename.dxb.
+	 * The program starts in the position 0 and there is no data section (the variables start with 0)
+	 * @param filename
+	 * @throws IOException
 	 */
-	protected void replaceRegisters() {
-		int p=0;
-		for (String line:execProgram) {
-			if (line.startsWith("%")){ //this line is a register
-				line = line.substring(1, line.length());
-				int regId = searchRegisterId(line, arch.getRegistersList());
-				String newLine = Integer.toString(regId);
-				execProgram.set(p, newLine);
-			}
-			p++;
+	public void makeBinaryExecutable(String filename) throws IOException {
+		System.out.println("Checking labels and variables");
+		if (makeExecutable() == null)
+			return;
+		int code[] = Arrays.copyOf(execProgram, execProgram.length+1);
+		code[execProgram.length] = -1; //-1 is a flag indicating that the program is finished
+		try (FileChannel channel = FileChannel.open(Paths.get(filename+".dxb"), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			BinaryExecutable.write(channel, 0, memorySize, code, 0, new int[0]);
 		}
-		
+		System.out.println("Finished");
 	}
 
 	/**
-	 * This method replaces all variables by their addresses.
-	 * The addresses o0f the variables startes in the end of the memory
-	 * and decreases (creating a stack)
+	 * This method creates the executable program from the object program, without saving it.
+	 * The image can be loaded directly into an architecture (see Architecture.loadImage)
+	 * @return the executable program or null if some label or variable wasn't declared
 	 */
-	protected void replaceAllVariables() {
-		int position = arch.getMemorySize()-1; //starting from the end of the memory
-		for (String var : this.variables) { //scanning all variables
-			replaceVariable(var, position);
-			position --;
-		}
+	public int[] makeExecutable() {
+		if (!checkLabels())
+			return null;
+		execProgram = objProgram.toArray();
+		replaceSymbols(); //replacing all variables and labels by the address they refer to
+		return execProgram;
+	}
+
+	/**
+	 * This method assembles a source program kept in memory: no file is read or written
+	 * @param source the lines of the assembly program
+	 * @return the executable program or null if some label or variable wasn't declared
+	 */
+	public static int[] assemble(List<String> source) {
+		return assemble(source, Isa.MEMORY_SIZE);
+	}
+
+	/**
+	 * This method assembles a source program kept in memory, for a memory with other size
+	 * @param source the lines of the assembly program
+	 * @param memorySize
+	 * @return the executable program or null if some label or variable wasn't declared
+	 */
+	public static int[] assemble(List<String> source, int memorySize) {
+		Assembler assembler = new Assembler(memorySize);
+		assembler.parse(source);
+		return assembler.makeExecutable();
 	}
 
 	/**
@@ -464,52 +450,33 @@ public class Assembler {
 	private void saveExecFile(String filename) throws IOException {
 		File file = new File(filename+".dxf");
 		BufferedWriter writer = new BufferedWriter(new FileWriter(file));
-		for (String l : execProgram)
-			writer.write(l+"\n");
+		for (int word : execProgram)
+			writer.write(word+"\n");
 		writer.write("-1"); //-1 is a flag indicating that the program is finished
 		writer.close();
 		
 	}
 
 	/**
-	 * This method replaces all labels in the execprogram by the corresponding
-	 * address they refer to
+	 * This method replaces all labels and variables in the execprogram by the corresponding
+	 * address they refer to. Only the positions in the relocation table are visited
 	 */
-	protected void replaceLabels() {
-		int i=0;
-		for (String label : labels) { //searching all labels
-			label = "&"+label;
-			int labelPointTo = labelsAdresses.get(i);
-			int lineNumber = 0;
-			for (String l : execProgram) {
-				if (l.equals(label)) {//this label must be replaced by the address
-					String newLine = Integer.toString(labelPointTo); // the address
-					execProgram.set(lineNumber, newLine);
-				}
-				lineNumber++;
-			}
-			i++;
+	protected void replaceSymbols() {
+		for (int i=0;i<objProgram.getFixupsCount();i++) {
+			execProgram[objProgram.getFixupPosition(i)] = resolve(objProgram.getFixupSymbol(i));
 		}
-		
 	}
 
 	/**
-	 * This method replaces all occurences of a variable
-	 * name found in the object program by his address
-	 * in the executable program
-	 * @param var
-	 * @param position
+	 * This method finds the address of a variable or a label
+	 * @param symbol
+	 * @return the address or null if the symbol wasn't declared (yet)
 	 */
-	protected void replaceVariable(String var, int position) {
-		var = "&"+var;
-		int i=0;
-		for (String s:execProgram) {
-			if (s.equals(var)) {
-				s = Integer.toString(position);
-				execProgram.set(i, s);
-			}
-			i++;
-		}
+	private Integer resolve(String symbol) {
+		Integer address = variables.get(symbol);
+		if (address == null)
+			address = labels.get(symbol);
+		return address;
 	}
 
 	/**
@@ -518,49 +485,164 @@ public class Assembler {
 	 * The labels and the variables collection are used for this
 	 */
 	protected boolean checkLabels() {
-		System.out.println("Checking labels and variables");
-		for (String line:objProgram) {
-			boolean found = false;
-			if (line.startsWith("&")) { //if starts with "&", it is a label or a variable
-				line = line.substring(1, line.length());
-				if (labels.contains(line))
-					found = true;
-				if (variables.contains(line))
-					found = true;
-				if (!found) {
-					System.out.println("FATAL ERROR! Variable or label "+line+" not declared!");
-					return false;
-				}
+		for (int i=0;i<objProgram.getFixupsCount();i++) { //only the words using a label or a variable
+			String line = objProgram.getFixupSymbol(i);
+			if ((!labels.containsKey(line))&&(!variables.containsKey(line))) {
+				System.out.println("FATAL ERROR! Variable or label "+line+" not declared!");
+				return false;
 			}
 		}
 		return true;
 	}
 	
 	/**
-	 * This method searches for a register in the architecture register list
-	 * by the register name
-	 * @param line
-	 * @param registersList
-	 * @return
+	 * This method assembles the file without keeping the source or the object program in memory.
+	 * The source is read line by line and the words of each line are written, as soon as they are
+	 * generated, into a temporary file. Only the positions using labels not declared yet are kept
+	 * in memory; they are patched in the temporary file in the end, and then the .dxf is written.
+	 * The .dxf is the same created by read, parse and makeExecutable
+	 * @param filename
+	 * @throws IOException
+	 */
+	public void assembleStream(String filename) throws IOException {
+		Path objFile = Files.createTempFile("assembler", ".obj");
+		try (FileChannel source = FileChannel.open(Paths.get(filename+".dsf"));
+				BufferedReader reader = new BufferedReader(Channels.newReader(source, StandardCharsets.UTF_8.newDecoder(), STREAM_BUFFER_SIZE));
+				FileChannel obj = FileChannel.open(objFile, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE)) {
+			ByteBuffer buffer = ByteBuffer.allocate(STREAM_BUFFER_SIZE);
+			LineScanner scanner = new LineScanner();
+			String line;
+			while ((line = reader.readLine()) != null) {
+				parseLine(scanner, line);
+				emit(obj, buffer);
+			}
+			buffer.flip();
+			while (buffer.hasRemaining())
+				obj.write(buffer);
+			System.out.println("Checking labels and variables");
+			if (!patchPending(obj))
+				return;
+			saveExecFile(obj, filename);
+			System.out.println("Finished");
+		}
+	}
+
+	/**
+	 * This method writes the words of the object program into the temporary file and clears it.
+	 * The symbols already declared are replaced now; the others are kept to be patched later
+	 * @param obj
+	 * @param buffer
+	 * @throws IOException
 	 */
-	private int searchRegisterId(String line, ArrayList<Register> registersList) {
-		int i=0;
-		for (Register r:registersList) {
-			if (line.equals(r.getRegisterName())) {
-				return i;
+	private void emit(FileChannel obj, ByteBuffer buffer) throws IOException {
+		for (int i=0;i<objProgram.getFixupsCount();i++) {
+			int position = objProgram.getFixupPosition(i);
+			Integer address = resolve(objProgram.getFixupSymbol(i));
+			if (address == null) { //a label declared later
+				Positions positions = pending.get(objProgram.getFixupSymbol(i));
+				if (positions == null) {
+					positions = new Positions();
+					pending.put(objProgram.getFixupSymbol(i), positions);
+				}
+				positions.add(emitted+position);
+			}
+			else
+				objProgram.setWord(position, address);
+		}
+		for (int i=0;i<objProgram.size();i++) {
+			if (!buffer.hasRemaining()) {
+				buffer.flip();
+				while (buffer.hasRemaining())
+					obj.write(buffer);
+				buffer.clear();
 			}
-			i++;
+			buffer.putInt(objProgram.getWord(i));
 		}
-		return -1;
+		emitted += objProgram.size();
+		objProgram.clear();
 	}
 
+	/**
+	 * This method replaces the symbols not known when their words were written
+	 * @param obj
+	 * @return false if some symbol was never declared
+	 * @throws IOException
+	 */
+	private boolean patchPending(FileChannel obj) throws IOException {
+		ByteBuffer word = ByteBuffer.allocate(Integer.BYTES);
+		for (String symbol:pending.keySet()) {
+			Integer address = resolve(symbol);
+			if (address == null) {
+				System.out.println("FATAL ERROR! Variable or label "+symbol+" not declared!");
+				return false;
+			}
+			Positions positions = pending.get(symbol);
+			for (int i=0;i<positions.count;i++) {
+				word.clear();
+				word.putInt(address);
+				word.flip();
+				obj.write(word, (long) positions.values[i]*Integer.BYTES);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * This method converts the temporary file into the output file
+	 * @param obj
+	 * @param filename
+	 * @throws IOException
+	 */
+	private void saveExecFile(FileChannel obj, String filename) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(STREAM_BUFFER_SIZE);
+		BufferedWriter writer = new BufferedWriter(new FileWriter(new File(filename+".dxf")), STREAM_BUFFER_SIZE);
+		obj.position(0);
+		while (obj.read(buffer) > 0) {
+			buffer.flip();
+			while (buffer.remaining() >= Integer.BYTES)
+				writer.write(buffer.getInt()+"\n");
+			buffer.compact();
+		}
+		writer.write("-1"); //-1 is a flag indicating that the program is finished
+		writer.close();
+	}
+	
+	/**
+	 * The positions using a symbol, kept as ints (a forward label can be used by a lot of jumps)
+	 */
+	private static class Positions {
+		private int values[] = new int[4];
+		private int count;
+
+		private void add(int position) {
+			if (count == values.length)
+				values = Arrays.copyOf(values, count*2);
+			values[count] = position;
+			count++;
+		}
+	}
+	
 	public static void main(String[] args) throws IOException {
 		//String filename = args[0];
 		Assembler assembler = new Assembler();
+		String mode = ((args != null)&&(args.length > 0)) ? args[0] : ""; //-stream, -parallel or -binary
+		if (mode.equals("-stream")) { //large programs: nothing is kept in memory
+			System.out.println("Generating executable: program.dxf");
+			assembler.assembleStream("program");
+			return;
+		}
 		//System.out.println("Reading source assembler file: "+filename+".dsf");
 		assembler.read("program");
 		//System.out.println("Generating the object program");
-		assembler.parse();
+		if (mode.equals("-parallel")) //large programs: all the cores are used
+			assembler.parseParallel();
+		else
+			assembler.parse();
+		if (mode.equals("-binary")) { //the binary executable: program.dxb
+			System.out.println("Generating executable: program.dxb");
+			assembler.makeBinaryExecutable("program");
+			return;
+		}
 		System.out.println("Generating executable: program.dxf");
 		assembler.makeExecutable("program");
 	}
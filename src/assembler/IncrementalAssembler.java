@@ -0,0 +1,287 @@
+package assembler;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import architecture.Isa;
+
+/**
+ * This class assembles the same file again and again (as in an edit, assemble and run loop),
+ * doing only the work needed by the lines changed since the last time.
+ * 		- each line is encoded only once: the words of a line don't depend on its position
+ * 		(the labels and variables are in the relocation table), so they are kept in a cache
+ * 		keyed by the line text (which also decides the command format, see Assembler.findCommandNumber).
+ * 		Only the lines of the last source assembled are kept
+ * 		- the lines before the first changed one keep their positions, labels and variables
+ * 		- the .dxf is rewritten only from the first word that changed
+ * The .dxf is the same created by read, parse and makeExecutable
+ */
+public class IncrementalAssembler {
+
+	private HashMap<String, LineCode> cache; //the encoded lines, by their text
+	private ArrayList<String> lines; //the source assembled the last time
+	private ArrayList<LineCode> codes; //the encoding of each line
+	private int lineStarts[]; //the object program position where each line starts
+	private ObjectProgram objProgram;
+	private HashMap<String, Integer> labels;
+	private HashMap<String, Integer> labelLines; //the line where each label was declared
+	private boolean redeclaredLabels; //some label was declared twice: the last one is kept
+	private LinkedHashMap<String, Integer> variables;
+	private HashMap<String, Integer> variableLines; //the line where each variable was declared
+	private int execProgram[]; //the words in the .dxf
+	private long offsets[]; //the offset of each word in the .dxf (and of the -1 in the end)
+	private LineScanner scanner;
+	private int memorySize; //the variables are allocated from the end of the memory
+
+	public IncrementalAssembler() {
+		this(Isa.MEMORY_SIZE);
+	}
+
+	/**
+	 * Constructor for programs that will run on a memory with other size
+	 * @param memorySize
+	 */
+	public IncrementalAssembler(int memorySize) {
+		this.memorySize = memorySize;
+		cache = new HashMap<>();
+		lines = new ArrayList<>();
+		codes = new ArrayList<>();
+		lineStarts = new int[1];
+		objProgram = new ObjectProgram();
+		labels = new HashMap<>();
+		labelLines = new HashMap<>();
+		variables = new LinkedHashMap<>();
+		variableLines = new HashMap<>();
+		execProgram = new int[0];
+		offsets = new long[1];
+		scanner = new LineScanner();
+	}
+
+	/**
+	 * The encoding of a single line: the words of a command, a label or a variable
+	 */
+	private static class LineCode {
+		private ObjectProgram words;
+		private String label;
+		private String variable;
+	}
+
+	/**
+	 * This method assembles the file again
+	 * @param filename
+	 * @return the amount of words written in the .dxf, or -1 if some label or variable wasn't declared
+	 * @throws IOException
+	 */
+	public int assemble(String filename) throws IOException {
+		List<String> source = Files.readAllLines(Paths.get(filename+".dsf"));
+		int first = 0; //the first changed line
+		while ((first < lines.size())&&(first < source.size())&&(lines.get(first).equals(source.get(first))))
+			first++;
+		if (redeclaredLabels) //the labels declared before the first line would be lost
+			first = 0;
+		forget(first);
+		for (int i=first;i<source.size();i++)
+			addLine(source.get(i));
+		keepCurrentLines();
+
+		if (!checkLabels())
+			return -1;
+		int exec[] = objProgram.toArray();
+		for (int i=0;i<objProgram.getFixupsCount();i++) {
+			String symbol = objProgram.getFixupSymbol(i);
+			Integer address = variables.get(symbol);
+			if (address == null)
+				address = labels.get(symbol);
+			exec[objProgram.getFixupPosition(i)] = address;
+		}
+		int changed = 0; //the first changed word
+		File file = new File(filename+".dxf");
+		if (file.length() == offsets[execProgram.length]+2) { //the .dxf is the one written the last time
+			while ((changed < exec.length)&&(changed < execProgram.length)&&(exec[changed] == execProgram[changed]))
+				changed++;
+			if ((changed == exec.length)&&(changed == execProgram.length))
+				return 0;
+		}
+		save(file, exec, changed);
+		return exec.length-changed;
+	}
+
+	/**
+	 * This method removes the lines from first to the end, with their words, labels and variables
+	 * @param first
+	 */
+	private void forget(int first) {
+		objProgram.truncate(lineStarts[first]);
+		for (int i=first;i<lines.size();i++) {
+			LineCode code = codes.get(i);
+			if ((code.label != null)&&(declaredFrom(labelLines, code.label, first))) {
+				labels.remove(code.label);
+				labelLines.remove(code.label);
+			}
+			if ((code.variable != null)&&(declaredFrom(variableLines, code.variable, first))) {
+				variables.remove(code.variable);
+				variableLines.remove(code.variable);
+			}
+		}
+		if (first == 0)
+			redeclaredLabels = false;
+		while (lines.size() > first) {
+			lines.remove(lines.size()-1);
+			codes.remove(codes.size()-1);
+		}
+	}
+
+	/**
+	 * This method drops from the cache the lines that aren't in the source anymore,
+	 * so the cache doesn't grow with every edit
+	 */
+	private void keepCurrentLines() {
+		HashMap<String, LineCode> current = new HashMap<>();
+		for (int i=0;i<lines.size();i++)
+			current.put(lines.get(i), codes.get(i));
+		cache = current;
+	}
+
+	/**
+	 * @param declarations the line where each name was declared
+	 * @param name
+	 * @param first
+	 * @return true if the name is (still) declared in the first line or after
+	 */
+	private boolean declaredFrom(HashMap<String, Integer> declarations, String name, int first) {
+		Integer line = declarations.get(name);
+		return (line != null)&&(line >= first);
+	}
+
+	/**
+	 * This method adds a line into the end of the program
+	 * @param line
+	 */
+	private void addLine(String line) {
+		LineCode code = cache.get(line);
+		if (code == null) {
+			code = encode(line);
+			cache.put(line, code);
+		}
+		int index = lines.size();
+		if (index+1 >= lineStarts.length)
+			lineStarts = Arrays.copyOf(lineStarts, lineStarts.length*2);
+		lines.add(line);
+		codes.add(code);
+		if (code.label != null) {
+			if (labels.containsKey(code.label))
+				redeclaredLabels = true;
+			labels.put(code.label, objProgram.size());
+			labelLines.put(code.label, index);
+		}
+		if ((code.variable != null)&&(!variables.containsKey(code.variable))) {
+			variables.put(code.variable, memorySize-1-variables.size());
+			variableLines.put(code.variable, index);
+		}
+		if (code.words != null)
+			objProgram.append(code.words);
+		lineStarts[index+1] = objProgram.size();
+	}
+
+	/**
+	 * This method encodes a line alone, using the Assembler
+	 * @param line
+	 * @return
+	 */
+	private LineCode encode(String line) {
+		Assembler assembler = new Assembler();
+		assembler.parseLine(scanner, line);
+		LineCode code = new LineCode();
+		if (assembler.getObjProgram().size() > 0)
+			code.words = assembler.getObjProgram();
+		for (String label:assembler.getLabels().keySet())
+			code.label = label;
+		for (String var:assembler.getVariables().keySet())
+			code.variable = var;
+		return code;
+	}
+
+	/**
+	 * This method checks if all labels and variables used were declared
+	 * @return
+	 */
+	private boolean checkLabels() {
+		for (int i=0;i<objProgram.getFixupsCount();i++) {
+			String symbol = objProgram.getFixupSymbol(i);
+			if ((!labels.containsKey(symbol))&&(!variables.containsKey(symbol))) {
+				System.out.println("FATAL ERROR! Variable or label "+symbol+" not declared!");
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * This method writes the words from changed to the end, keeping the .dxf before them
+	 * @param file
+	 * @param exec
+	 * @param changed
+	 * @throws IOException
+	 */
+	private void save(File file, int exec[], int changed) throws IOException {
+		if (offsets.length < exec.length+1)
+			offsets = Arrays.copyOf(offsets, exec.length+1);
+		StringBuilder text = new StringBuilder();
+		long offset = (changed == 0) ? 0 : offsets[changed];
+		for (int i=changed;i<exec.length;i++) {
+			offsets[i] = offset+text.length(); //the words are ASCII: one byte per char
+			text.append(exec[i]).append('\n');
+		}
+		offsets[exec.length] = offset+text.length();
+		text.append("-1"); //-1 is a flag indicating that the program is finished
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+			channel.truncate(offset);
+			ByteBuffer buffer = ByteBuffer.wrap(text.toString().getBytes(StandardCharsets.US_ASCII));
+			while (buffer.hasRemaining())
+				channel.write(buffer, offset+buffer.position());
+		}
+		execProgram = exec;
+	}
+
+	/**
+	 * This method is used for TDD purposes only
+	 * @return the amount of lines in the cache
+	 */
+	protected int getCacheSize() {
+		return cache.size();
+	}
+
+	/**
+	 * This method assembles program.dsf every time it is saved
+	 * @param args
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		IncrementalAssembler assembler = new IncrementalAssembler();
+		File source = new File("program.dsf");
+		long modified = -1;
+		while (true) {
+			if (source.lastModified() != modified) {
+				modified = source.lastModified();
+				long start = System.nanoTime();
+				int words = assembler.assemble("program");
+				if (words >= 0)
+					System.out.println("program.dxf: "+words+" words written in "+(System.nanoTime()-start)/1000000+" ms");
+			}
+			Thread.sleep(100);
+		}
+	}
+
+}
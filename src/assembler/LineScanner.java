@@ -0,0 +1,192 @@
+package assembler;
+
+import architecture.Isa;
+
+/**
+ * This class splits a source line into tokens in a single pass over its chars.
+ * Spaces and tabs (repeated or not) separate the tokens. Only the tokens bounds are kept,
+ * so scanning a line creates no objects: the text of a token is created only when asked.
+ * Each token is classified by its first (or last) char:
+ * 		%name   a register
+ * 		&name   a memory position
+ * 		-12, 12 an immediate value
+ * 		name:   a label (only as the first token)
+ * 		name    a name: a command, a variable, or a label used as operand
+ */
+public class LineScanner {
+
+	//tokens kinds
+	public static final int NONE = 0; //there is no such token in the line
+	public static final int REGISTER = 1;
+	public static final int MEMORY = 2;
+	public static final int IMMEDIATE = 3;
+	public static final int LABEL = 4;
+	public static final int NAME = 5;
+
+	private static final int MAX_TOKENS = 4; //a command and 3 operands
+
+	private String line;
+	private int count;
+	private int starts[];
+	private int ends[];
+	private int kinds[];
+
+	public LineScanner() {
+		starts = new int[MAX_TOKENS];
+		ends = new int[MAX_TOKENS];
+		kinds = new int[MAX_TOKENS];
+	}
+
+	/**
+	 * This method scans the line. The tokens after the fourth one are ignored
+	 * @param line
+	 */
+	public void scan(String line) {
+		this.line = line;
+		count = 0;
+		int length = line.length();
+		int i = 0;
+		while ((i < length)&&(count < MAX_TOKENS)) {
+			char c = line.charAt(i);
+			if ((c == ' ')||(c == '\t')||(c == '\r')) {
+				i++;
+				continue;
+			}
+			int start = i;
+			while ((i < length)&&(line.charAt(i) != ' ')&&(line.charAt(i) != '\t')&&(line.charAt(i) != '\r'))
+				i++;
+			starts[count] = start;
+			ends[count] = i;
+			kinds[count] = classify(start, i, count == 0);
+			count++;
+		}
+	}
+
+	/**
+	 * This method finds the kind of the token between start and end
+	 * @param start
+	 * @param end
+	 * @param first true if it is the first token of the line
+	 * @return
+	 */
+	private int classify(int start, int end, boolean first) {
+		char c = line.charAt(start);
+		if (c == '%')
+			return REGISTER;
+		if (c == '&')
+			return MEMORY;
+		if (first && (line.charAt(end-1) == ':'))
+			return LABEL;
+		int digits = start;
+		if ((c == '-')&&(end-start > 1))
+			digits++;
+		for (int i=digits;i<end;i++) {
+			if ((line.charAt(i) < '0')||(line.charAt(i) > '9'))
+				return NAME;
+		}
+		return IMMEDIATE;
+	}
+
+	/**
+	 * @return the amount of tokens in the line
+	 */
+	public int count() {
+		return count;
+	}
+
+	/**
+	 * @param token
+	 * @return the kind of the token, or NONE if the line has fewer tokens
+	 */
+	public int kind(int token) {
+		if (token >= count)
+			return NONE;
+		return kinds[token];
+	}
+
+	/**
+	 * This method compares the token to a word, without creating a string
+	 * @param token
+	 * @param word
+	 * @return
+	 */
+	public boolean is(int token, String word) {
+		if (token >= count)
+			return false;
+		int length = ends[token]-starts[token];
+		return (length == word.length())&&(line.regionMatches(starts[token], word, 0, length));
+	}
+
+	/**
+	 * @param token
+	 * @return the token text
+	 */
+	public String text(int token) {
+		return line.substring(starts[token], ends[token]);
+	}
+
+	/**
+	 * This method returns the name in the token, without the prefix (% or &) or the suffix (:) of its kind
+	 * @param token
+	 * @return
+	 */
+	public String name(int token) {
+		int start = starts[token];
+		int end = ends[token];
+		if ((kinds[token] == REGISTER)||(kinds[token] == MEMORY))
+			start++;
+		if (kinds[token] == LABEL)
+			end--;
+		return line.substring(start, end);
+	}
+
+	/**
+	 * This method returns the value of an immediate token
+	 * @param token
+	 * @return
+	 * @throws NumberFormatException if the value doesn't fit in an int (as Integer.parseInt)
+	 */
+	public int intValue(int token) {
+		int i = starts[token];
+		boolean negative = line.charAt(i) == '-';
+		if (negative)
+			i++;
+		long limit = negative ? -(long) Integer.MIN_VALUE : Integer.MAX_VALUE;
+		long value = 0;
+		for (;i<ends[token];i++) {
+			value = value*10 + (line.charAt(i)-'0');
+			if (value > limit)
+				throw new NumberFormatException("For input string: \""+text(token)+"\"");
+		}
+		return (int) (negative ? -value : value);
+	}
+
+	/**
+	 * This method returns the id of a register token (see Isa)
+	 * @param token
+	 * @return the id or -1 if there is no register with this name
+	 */
+	public int registerId(int token) {
+		int length = ends[token]-starts[token]-1; //without the %
+		for (int id=0;id<Isa.getRegistersCount();id++) {
+			String name = Isa.getRegisterName(id);
+			if ((name.length() == length)&&(line.regionMatches(starts[token]+1, name, 0, length)))
+				return id;
+		}
+		return -1;
+	}
+
+	/**
+	 * This method returns the number of the command named by the token (see Isa)
+	 * @param token
+	 * @return the command number or -1 if there is no command with this name
+	 */
+	public int commandId(int token) {
+		for (int id=0;id<Isa.getCommandsCount();id++) {
+			if (is(token, Isa.getCommandName(id)))
+				return id;
+		}
+		return -1;
+	}
+
+}
@@ -0,0 +1,151 @@
+package assembler;
+
+import java.util.Arrays;
+
+/**
+ * This class keeps the object program generated by the assembler: the words, already as numbers,
+ * and a relocation table with the positions using a label or a variable (and their names).
+ * Those positions keep 0 until the executable is made and the addresses are known.
+ */
+public class ObjectProgram {
+
+	private int words[];
+	private int size;
+	private int fixupPositions[];
+	private String fixupSymbols[];
+	private int fixupsCount;
+
+	public ObjectProgram() {
+		words = new int[64];
+		fixupPositions = new int[16];
+		fixupSymbols = new String[16];
+	}
+
+	/**
+	 * This method adds a word into the end of the program
+	 * @param word
+	 */
+	public void add(int word) {
+		if (size == words.length)
+			words = Arrays.copyOf(words, size*2);
+		words[size] = word;
+		size++;
+	}
+
+	/**
+	 * This method adds a word referring to a label or a variable.
+	 * Its position is kept in the relocation table
+	 * @param symbol the label or variable name (without the "&")
+	 */
+	public void addSymbol(String symbol) {
+		if (fixupsCount == fixupPositions.length) {
+			fixupPositions = Arrays.copyOf(fixupPositions, fixupsCount*2);
+			fixupSymbols = Arrays.copyOf(fixupSymbols, fixupsCount*2);
+		}
+		fixupPositions[fixupsCount] = size;
+		fixupSymbols[fixupsCount] = symbol;
+		fixupsCount++;
+		add(0);
+	}
+
+	/**
+	 * This method replaces a word already in the program
+	 * @param position
+	 * @param word
+	 */
+	public void setWord(int position, int word) {
+		words[position] = word;
+	}
+
+	/**
+	 * This method removes all the words and the relocation table,
+	 * keeping the arrays to be reused (see Assembler.assembleStream)
+	 */
+	public void clear() {
+		size = 0;
+		fixupsCount = 0;
+	}
+
+	/**
+	 * This method adds all the words of other program into the end of this one.
+	 * The positions in its relocation table are moved accordingly
+	 * @param other
+	 */
+	public void append(ObjectProgram other) {
+		int offset = size;
+		for (int i=0;i<other.fixupsCount;i++) {
+			if (fixupsCount == fixupPositions.length) {
+				fixupPositions = Arrays.copyOf(fixupPositions, fixupsCount*2);
+				fixupSymbols = Arrays.copyOf(fixupSymbols, fixupsCount*2);
+			}
+			fixupPositions[fixupsCount] = other.fixupPositions[i]+offset;
+			fixupSymbols[fixupsCount] = other.fixupSymbols[i];
+			fixupsCount++;
+		}
+		if (size+other.size > words.length)
+			words = Arrays.copyOf(words, Math.max(words.length*2, size+other.size));
+		System.arraycopy(other.words, 0, words, size, other.size);
+		size += other.size;
+	}
+
+	/**
+	 * This method removes the words from the position to the end (and their relocation entries)
+	 * @param position the new size of the program
+	 */
+	public void truncate(int position) {
+		while ((fixupsCount > 0)&&(fixupPositions[fixupsCount-1] >= position))
+			fixupsCount--;
+		size = position;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int getWord(int position) {
+		return words[position];
+	}
+
+	public int getFixupsCount() {
+		return fixupsCount;
+	}
+
+	/**
+	 * @param fixup the index in the relocation table
+	 * @return the position in the program using the symbol
+	 */
+	public int getFixupPosition(int fixup) {
+		return fixupPositions[fixup];
+	}
+
+	/**
+	 * @param fixup the index in the relocation table
+	 * @return the label or variable name
+	 */
+	public String getFixupSymbol(int fixup) {
+		return fixupSymbols[fixup];
+	}
+
+	/**
+	 * This method returns a copy of the words. The positions in the relocation table keep 0
+	 * @return
+	 */
+	public int[] toArray() {
+		return Arrays.copyOf(words, size);
+	}
+
+	/**
+	 * This method returns the word as text: the number or "&" and the symbol name
+	 * This method is used for TDD purposes only
+	 * @param position
+	 * @return
+	 */
+	public String get(int position) {
+		for (int i=0;i<fixupsCount;i++) {
+			if (fixupPositions[i] == position)
+				return "&"+fixupSymbols[i];
+		}
+		return Integer.toString(words[position]);
+	}
+
+}
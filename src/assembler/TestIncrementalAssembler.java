@@ -0,0 +1,136 @@
+package assembler;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TestIncrementalAssembler {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder(); //deleted after each test
+
+	/**
+	 * This method assembles the source with the Assembler
+	 * @return the .dxf created
+	 */
+	private byte[] assemble(String filename, ArrayList<String> source) throws IOException {
+		Assembler ass = new Assembler();
+		ass.setLines(source);
+		ass.parse();
+		ass.makeExecutable(filename+"Expected");
+		return Files.readAllBytes(new File(filename+"Expected.dxf").toPath());
+	}
+
+	@Test
+	public void testAssemble() throws IOException {
+		File dir = folder.getRoot();
+		String filename = new File(dir, "program").getPath();
+		File dsf = new File(filename+".dsf");
+		File dxf = new File(filename+".dxf");
+		ArrayList<String> source = new ArrayList<>(Arrays.asList(
+				"var1",
+				"var2",
+				"ldi %RPG0 10",
+				"jmp end",
+				"begin:",
+				"moveRegReg %RPG1 %RPG0",
+				"addRegMem %RPG0 &var1",
+				"jn begin",
+				"end:",
+				"moveMemReg &var2 %RPG3"));
+		IncrementalAssembler incremental = new IncrementalAssembler();
+		
+		//the first time, everything is written
+		Files.write(dsf.toPath(), source);
+		assertEquals(16, incremental.assemble(filename));
+		assertArrayEquals(assemble(filename, source), Files.readAllBytes(dxf.toPath()));
+		
+		//nothing changed
+		assertEquals(0, incremental.assemble(filename));
+		
+		//changing the last line: only the words from the one using the variable are written
+		source.set(9, "moveMemReg &var1 %RPG3");
+		Files.write(dsf.toPath(), source);
+		assertEquals(2, incremental.assemble(filename));
+		assertArrayEquals(assemble(filename, source), Files.readAllBytes(dxf.toPath()));
+		
+		//inserting a line before the labels: they move, so the jump to end changes too
+		source.add(5, "incReg %RPG2");
+		Files.write(dsf.toPath(), source);
+		assertEquals(14, incremental.assemble(filename));
+		assertArrayEquals(assemble(filename, source), Files.readAllBytes(dxf.toPath()));
+		
+		//removing a variable and declaring a new one
+		source.set(1, "var3");
+		source.set(10, "moveMemReg &var3 %RPG3");
+		Files.write(dsf.toPath(), source);
+		incremental.assemble(filename);
+		assertArrayEquals(assemble(filename, source), Files.readAllBytes(dxf.toPath()));
+		
+		//a label declared twice: the last one is used
+		source.add("begin:");
+		source.add("jz begin");
+		Files.write(dsf.toPath(), source);
+		incremental.assemble(filename);
+		assertArrayEquals(assemble(filename, source), Files.readAllBytes(dxf.toPath()));
+		source.remove(source.size()-2);
+		Files.write(dsf.toPath(), source);
+		incremental.assemble(filename);
+		assertArrayEquals(assemble(filename, source), Files.readAllBytes(dxf.toPath()));
+		
+		//a label not declared: the .dxf is kept
+		byte previous[] = Files.readAllBytes(dxf.toPath());
+		source.add("jmp nowhere");
+		Files.write(dsf.toPath(), source);
+		assertEquals(-1, incremental.assemble(filename));
+		assertArrayEquals(previous, Files.readAllBytes(dxf.toPath()));
+		
+		//the .dxf was removed: everything is written again
+		source.remove(source.size()-1);
+		Files.write(dsf.toPath(), source);
+		dxf.delete();
+		incremental.assemble(filename);
+		assertArrayEquals(assemble(filename, source), Files.readAllBytes(dxf.toPath()));
+	}
+
+	@Test
+	public void testCacheEviction() throws IOException {
+		File dir = folder.getRoot();
+		String filename = new File(dir, "program").getPath();
+		File dsf = new File(filename+".dsf");
+		ArrayList<String> source = new ArrayList<>(Arrays.asList(
+				"ldi %RPG0 10",
+				"incReg %RPG0",
+				"incReg %RPG0"));
+		IncrementalAssembler incremental = new IncrementalAssembler();
+		
+		//the repeated line is cached once
+		Files.write(dsf.toPath(), source);
+		incremental.assemble(filename);
+		assertEquals(2, incremental.getCacheSize());
+		
+		//editing the same line again and again: only the last version is kept
+		for (int i=0;i<100;i++) {
+			source.set(0, "ldi %RPG0 "+i);
+			Files.write(dsf.toPath(), source);
+			incremental.assemble(filename);
+			assertEquals(2, incremental.getCacheSize());
+		}
+		
+		//removing lines drops them from the cache
+		source.remove(2);
+		source.remove(1);
+		Files.write(dsf.toPath(), source);
+		incremental.assemble(filename);
+		assertEquals(1, incremental.getCacheSize());
+	}
+
+}
@@ -0,0 +1,78 @@
+package assembler;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import architecture.Isa;
+
+public class TestLineScanner {
+
+	@Test
+	public void testScan() {
+		LineScanner scanner = new LineScanner();
+		
+		//tabs and repeated spaces separate the tokens
+		scanner.scan("\tmoveRegReg   %RPG1\t %RPG0\r");
+		assertEquals(3, scanner.count());
+		assertEquals("moveRegReg", scanner.text(0));
+		assertEquals(LineScanner.NAME, scanner.kind(0));
+		assertEquals(LineScanner.REGISTER, scanner.kind(1));
+		assertEquals(LineScanner.REGISTER, scanner.kind(2));
+		assertEquals(LineScanner.NONE, scanner.kind(3));
+		assertEquals("RPG1", scanner.name(1));
+		assertEquals(1, scanner.registerId(1));
+		assertEquals(0, scanner.registerId(2));
+		assertEquals(Isa.getCommandId("moveRegReg"), scanner.commandId(0));
+		
+		//an empty line has no tokens
+		scanner.scan("   ");
+		assertEquals(0, scanner.count());
+		assertEquals(LineScanner.NONE, scanner.kind(0));
+		assertFalse(scanner.is(0, "add"));
+		
+		//immediate values and memory positions
+		scanner.scan("addImmMem -12 &var1");
+		assertEquals(LineScanner.IMMEDIATE, scanner.kind(1));
+		assertEquals(-12, scanner.intValue(1));
+		assertEquals(LineScanner.MEMORY, scanner.kind(2));
+		assertEquals("var1", scanner.name(2));
+		assertTrue(scanner.is(0, "addImmMem"));
+		assertFalse(scanner.is(0, "add"));
+		
+		//a lonely "-" is not a number
+		scanner.scan("x -");
+		assertEquals(LineScanner.NAME, scanner.kind(1));
+		
+		//labels
+		scanner.scan("label:");
+		assertEquals(1, scanner.count());
+		assertEquals(LineScanner.LABEL, scanner.kind(0));
+		assertEquals("label", scanner.name(0));
+		assertEquals(-1, scanner.commandId(0));
+		
+		//unknown register
+		scanner.scan("inc %XYZ");
+		assertEquals(-1, scanner.registerId(1));
+	}
+
+	@Test
+	public void testIntValueLimits() {
+		LineScanner scanner = new LineScanner();
+		scanner.scan("ldi %RPG0 2147483647 -2147483648");
+		assertEquals(Integer.MAX_VALUE, scanner.intValue(2));
+		assertEquals(Integer.MIN_VALUE, scanner.intValue(3));
+		
+		//values out of the int range are rejected as Integer.parseInt does
+		for (String value:new String[] {"2147483648", "-2147483649", "99999999999999999999999"}) {
+			scanner.scan("ldi %RPG0 "+value);
+			try {
+				scanner.intValue(2);
+				fail(value+" doesn't fit in an int");
+			}
+			catch (NumberFormatException e) {
+			}
+		}
+	}
+
+}
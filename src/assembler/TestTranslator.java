@@ -0,0 +1,64 @@
+package assembler;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TestTranslator {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder(); //deleted after each test
+
+	/**
+	 * This method writes the program as an executable file (test.dxf) in the directory
+	 * @param directory
+	 * @param program
+	 * @return the file name without the extension
+	 * @throws IOException
+	 */
+	public static String writeExec(File directory, int program[]) throws IOException {
+		return writeExec(directory, "test", program);
+	}
+
+	/**
+	 * This method writes the program as an executable file in the directory
+	 * (also used by TestPrecompiledProgram and TestBatchRunner)
+	 * @param directory
+	 * @param name the file name without the extension
+	 * @param program
+	 * @return the file name, with the directory and without the extension
+	 * @throws IOException
+	 */
+	public static String writeExec(File directory, String name, int program[]) throws IOException {
+		String filename = new File(directory, name).getPath();
+		BufferedWriter writer = new BufferedWriter(new FileWriter(filename+".dxf"));
+		for (int word:program)
+			writer.write(word+"\n");
+		writer.close();
+		return filename;
+	}
+
+	@Test
+	public void testGenerate() throws IOException {
+		//0: move 3 %RPG0
+		//3: inc %RPG0
+		//5: jmp 3
+		//7: end
+		Translator translator = new Translator(128);
+		translator.read(writeExec(folder.newFolder(), new int[] {14, 3, 0, 15, 0, 17, 3, -1}));
+		String source = translator.generate("TestExec");
+		assertTrue(source.contains("public class TestExec implements PrecompiledProgram"));
+		assertTrue(source.contains("case 3:"));
+		assertTrue(source.contains("pc = 3;"));
+		//the program words are 0 to 7
+		assertTrue(source.contains("((position >= 0)&&(position < 8))"));
+	}
+
+}
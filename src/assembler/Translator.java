@@ -0,0 +1,259 @@
+package assembler;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+import architecture.DecodedInstruction;
+import architecture.DecodedProgram;
+import architecture.InstructionWriter;
+import architecture.Isa;
+import architecture.PrecompiledProgram;
+import components.Bus;
+import components.Memory;
+
+/**
+ * This class translates an executable file (.dxf) into a java class implementing PrecompiledProgram.
+ * The instructions are found the same way the architecture runs them: from the address 0 until the
+ * end flag (-1). Jumps select the instruction by a switch over the PC.
+ * Instructions that would be delegated to the microprograms, or that store into the program words,
+ * are left to the architecture: the generated run method returns false with PC pointing to them.
+ * The class is written as <name>Exec.java next to the executable and compiled (the java compiler must be available).
+ * Architecture.loadPrecompiled loads it.
+ */
+public class Translator {
+
+	private int memorySize;
+	private int image[];
+	private int length;
+
+	/**
+	 * @param memorySize the size of the memory the program will run on
+	 */
+	public Translator(int memorySize) {
+		this.memorySize = memorySize;
+	}
+
+	/**
+	 * This method reads the executable file (filename.dxf)
+	 * @param filename
+	 * @throws IOException
+	 */
+	public void read(String filename) throws IOException {
+		BufferedReader br = new BufferedReader(new FileReader(filename+".dxf"));
+		image = new int[memorySize];
+		length = 0;
+		String line;
+		while ((line = br.readLine()) != null) {
+			if (length == memorySize) {
+				br.close();
+				throw new IOException(filename+".dxf doesn't fit in the memory");
+			}
+			image[length] = Integer.parseInt(line);
+			length++;
+		}
+		br.close();
+	}
+
+	/**
+	 * This method translates the executable file, writing and compiling the java class
+	 * @param filename
+	 * @return the java file written
+	 * @throws IOException
+	 */
+	public File translate(String filename) throws IOException {
+		read(filename);
+		String className = PrecompiledProgram.className(filename);
+		File source = new File(new File(filename).getAbsoluteFile().getParentFile(), className+".java");
+		BufferedWriter writer = new BufferedWriter(new FileWriter(source));
+		writer.write(generate(className));
+		writer.close();
+		compile(source);
+		return source;
+	}
+
+	/**
+	 * This method compiles the java file into the same directory
+	 * @param source
+	 * @throws IOException if there is no java compiler (the file is kept, to be compiled by hand) or the compilation fails
+	 */
+	protected void compile(File source) throws IOException {
+		JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+		if (javac == null)
+			throw new IOException("no java compiler found: "+source.getName()+" must be compiled by hand");
+		int result = javac.run(null, null, null, "-nowarn", "-classpath", System.getProperty("java.class.path"),
+				"-d", source.getParent(), source.getPath());
+		if (result != 0)
+			throw new IOException("the compilation of "+source.getName()+" failed");
+	}
+
+	/**
+	 * This method generates the source of the class for the image read
+	 * @param className
+	 * @return
+	 */
+	protected String generate(String className) {
+		Memory memory = new Memory(memorySize, new Bus());
+		memory.load(0, image, 0, length);
+		DecodedProgram program = new DecodedProgram(memory);
+		boolean code[] = new boolean[memorySize];
+		ArrayList<Integer> starts = new ArrayList<>();
+		int pc = 0;
+		while ((pc >= 0)&&(pc < memorySize)) { //the same instructions the architecture would run
+			DecodedInstruction instruction = program.get(pc);
+			starts.add(pc);
+			Arrays.fill(code, pc, Math.min(instruction.getNextPC(), memorySize), true);
+			if (!DecodedProgram.isCommand(instruction.getCommand()))
+				break;
+			pc = instruction.getNextPC();
+		}
+
+		ProgramWriter writer = new ProgramWriter();
+		StringBuilder body = new StringBuilder();
+		for (int start:starts) {
+			DecodedInstruction instruction = program.get(start);
+			body.append("\t\t\tcase ").append(start).append(": //command ").append(instruction.getCommand()).append("\n");
+			if (!DecodedProgram.isCommand(instruction.getCommand())) { //the end of the program
+				writer.line(body, "ir = " + instruction.getCommand() + ";");
+				writer.exit(body, Integer.toString(start), true);
+			}
+			else if ((!instruction.isDirect())||(storesIntoCode(instruction, code))) //left to the architecture
+				writer.exit(body, Integer.toString(start), false);
+			else if (instruction.getCommand() == 9)
+				writer.imulRegMem(body, instruction, start);
+			else
+				writer.translate(body, instruction, start);
+		}
+		if ((pc < 0)||(pc >= memorySize)) { //the program runs off the end of the memory, without the end flag
+			body.append("\t\t\tcase ").append(pc).append(": //the end of the memory: the architecture stops there\n");
+			writer.exit(body, Integer.toString(pc), false);
+		}
+		body.append("\t\t\tdefault: //not an instruction of the program\n");
+		writer.exit(body, "pc", false);
+
+		StringBuilder source = new StringBuilder();
+		source.append("import architecture.PrecompiledProgram;\n\n");
+		source.append("/**\n * Generated by assembler.Translator. Don't change it\n */\n");
+		source.append("public class ").append(className).append(" implements PrecompiledProgram {\n\n");
+		source.append("\tpublic long getImageHash() {\n\t\treturn ")
+			.append(PrecompiledProgram.imageHash(image, length, memorySize)).append("L;\n\t}\n\n");
+		source.append("\tprivate static boolean isCode(int position) {\n\t\treturn false");
+		for (int i=0;i<memorySize;i++) {
+			if (code[i]) {
+				int end = i;
+				while ((end < memorySize)&&(code[end]))
+					end++;
+				source.append(" || ((position >= ").append(i).append(")&&(position < ").append(end).append("))");
+				i = end;
+			}
+		}
+		source.append(";\n\t}\n\n");
+		source.append("\tprivate static int scratchPosition(int mem[]) {\n");
+		source.append("\t\tint aux = mem.length-1;\n");
+		source.append("\t\twhile ((aux >= 0)&&(mem[aux] != 0))\n\t\t\taux--;\n");
+		source.append("\t\treturn aux;\n\t}\n\n");
+		source.append("\tpublic boolean run(int regs[], int mem[]) {\n");
+		source.append("\t\tint r0 = regs[0], r1 = regs[1], r2 = regs[2], r3 = regs[3];\n");
+		source.append("\t\tint pc = regs[4], ir = regs[5], flags = regs[6];\n");
+		source.append("\t\tint x, result, aux;\n");
+		source.append("\t\twhile (true) {\n");
+		source.append("\t\t\tswitch (pc) {\n");
+		source.append(body);
+		source.append("\t\t\t}\n\t\t}\n\t}\n}\n");
+		return source.toString();
+	}
+
+	/**
+	 * This method returns true if the instruction stores into a word of the program
+	 * @param instruction
+	 * @param code
+	 * @return
+	 */
+	private boolean storesIntoCode(DecodedInstruction instruction, boolean code[]) {
+		switch (instruction.getCommand()) {
+		case 2: case 3: case 6: case 7: case 9: case 12: case 26: //the second operand is written
+			return code[instruction.getOperand2()];
+		case 16: //incMem
+			return code[instruction.getOperand1()];
+		}
+		return false;
+	}
+
+	/**
+	 * This class writes the instructions of the program over the mem array
+	 */
+	private static class ProgramWriter extends InstructionWriter {
+
+		@Override
+		protected String read(int position) {
+			return "mem[" + position + "]";
+		}
+
+		@Override
+		protected void store(StringBuilder out, int position, String value, int pc) {
+			line(out, "mem[" + position + "] = " + value + ";");
+		}
+
+		@Override
+		protected void jump(StringBuilder out, String condition, int target, int nextPC) {
+			if (condition.equals("true"))
+				line(out, "pc = " + target + ";");
+			else
+				line(out, "pc = (" + condition + ") ? " + target + " : " + nextPC + ";");
+			line(out, "continue;");
+		}
+
+		@Override
+		protected void line(StringBuilder out, String statement) {
+			out.append("\t\t\t\t").append(statement).append("\n");
+		}
+
+		@Override
+		protected void exit(StringBuilder out, String pc, boolean returned) { //used by the Translator too
+			super.exit(out, pc, returned);
+		}
+
+		/**
+		 * This method writes imulRegMem, keeping the address in the last free position as the microprogram does.
+		 * If there is no free position, or it is a word of the program, the architecture executes it
+		 * @param out
+		 * @param instruction
+		 * @param pc
+		 */
+		public void imulRegMem(StringBuilder out, DecodedInstruction instruction, int pc) {
+			String ra = "r" + instruction.getOperand1();
+			int b = instruction.getOperand2();
+			line(out, "ir = 9;");
+			line(out, "aux = scratchPosition(mem);");
+			line(out, "if ((aux < 0)||(isCode(aux))) {");
+			exit(out, Integer.toString(pc), false);
+			line(out, "}");
+			line(out, "mem[aux] = " + b + ";");
+			line(out, "x = mem[" + b + "];");
+			line(out, "result = x * " + ra + ";");
+			flags(out);
+			line(out, "ir = (" + ra + " != 0) ? result : x;");
+			line(out, "mem[" + b + "] = result;");
+		}
+
+	}
+
+	public static void main(String[] args) throws IOException {
+		String filename = "program";
+		if (args.length > 0)
+			filename = args[0];
+		Translator translator = new Translator(Isa.MEMORY_SIZE);
+		System.out.println("Translating the executable: "+filename+".dxf");
+		File source = translator.translate(filename);
+		System.out.println("Generated: "+source.getName());
+	}
+
+}
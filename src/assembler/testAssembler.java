@@ -2,12 +2,22 @@ package assembler;
 
 import static org.junit.Assert.*;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
 
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 public class testAssembler {
 
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder(); //deleted after each test
+
 	@Test
 	public void testProccessCommand() {
 		
@@ -28,7 +38,7 @@ public class testAssembler {
 		 */
 		Assembler ass = new Assembler();
 		String commandLine[] = new String[3];
-		ArrayList<String> returnedObj = new ArrayList<>();
+		ObjectProgram returnedObj = new ObjectProgram();
 		
 		//first test: add
 		commandLine[0] = "add";
@@ -40,7 +50,7 @@ public class testAssembler {
 		assertEquals(2, ass.getObjProgram().size()); //only two lines: the command and the address
 		
 		//second test: sub
-		returnedObj = new ArrayList<>();
+		returnedObj = new ObjectProgram();
 		ass = new Assembler();
 		commandLine[0] = "sub";
 		commandLine[1] = "variable";
@@ -51,7 +61,7 @@ public class testAssembler {
 		assertEquals(2, ass.getObjProgram().size()); //only two lines: the command and the address
 		
 		//third test: jmp
-		returnedObj = new ArrayList<>();
+		returnedObj = new ObjectProgram();
 		ass = new Assembler();
 		commandLine[0] = "jmp";
 		commandLine[1] = "label";
@@ -62,7 +72,7 @@ public class testAssembler {
 		assertEquals(2, ass.getObjProgram().size()); //only two lines: the command and the address
 		
 		//fourth test: jz
-		returnedObj = new ArrayList<>();
+		returnedObj = new ObjectProgram();
 		ass = new Assembler();
 		commandLine[0] = "jz";
 		commandLine[1] = "label";
@@ -73,7 +83,7 @@ public class testAssembler {
 		assertEquals(2, ass.getObjProgram().size()); //only two lines: the command and the address
 		
 		//fifth test: jn
-		returnedObj = new ArrayList<>();
+		returnedObj = new ObjectProgram();
 		ass = new Assembler();
 		commandLine[0] = "jn";
 		commandLine[1] = "label";
@@ -84,7 +94,7 @@ public class testAssembler {
 		assertEquals(2, ass.getObjProgram().size()); //only two lines: the command and the address
 		
 		//sixth test: read
-		returnedObj = new ArrayList<>();
+		returnedObj = new ObjectProgram();
 		ass = new Assembler();
 		commandLine[0] = "read";
 		commandLine[1] = "address";
@@ -95,7 +105,7 @@ public class testAssembler {
 		assertEquals(2, ass.getObjProgram().size()); //only two lines: the command and the address
 		
 		//seventh test: store
-		returnedObj = new ArrayList<>();
+		returnedObj = new ObjectProgram();
 		ass = new Assembler();
 		commandLine[0] = "store";
 		commandLine[1] = "address";
@@ -106,7 +116,7 @@ public class testAssembler {
 		assertEquals(2, ass.getObjProgram().size()); //only two lines: the command and the address
 		
 		//eighth test: ldi
-		returnedObj = new ArrayList<>();
+		returnedObj = new ObjectProgram();
 		ass = new Assembler();
 		commandLine[0] = "ldi";
 		commandLine[1] = "40";
@@ -117,7 +127,7 @@ public class testAssembler {
 		assertEquals(2, ass.getObjProgram().size()); //only two lines: the command and the immediate
 		
 		//nineth test: inc
-		returnedObj = new ArrayList<>();
+		returnedObj = new ObjectProgram();
 		ass = new Assembler();
 		commandLine[0] = "inc";
 		commandLine[1] = "address";
@@ -127,7 +137,7 @@ public class testAssembler {
 		assertEquals(1, ass.getObjProgram().size()); //only one lines: the command and no parameters
 		
 		//tenth test: move %regA %regB
-		returnedObj = new ArrayList<>();
+		returnedObj = new ObjectProgram();
 		ass = new Assembler();
 		commandLine[0] = "move";
 		commandLine[1] = "%RPG0";
@@ -135,8 +145,8 @@ public class testAssembler {
 		ass.proccessCommand(commandLine);
 		returnedObj = ass.getObjProgram();
 		assertEquals("9", returnedObj.get(0)); //the move %regA %regB code is 9
-		assertEquals("%RPG0", ass.getObjProgram().get(1));
-		assertEquals("%RPG1", ass.getObjProgram().get(2));
+		assertEquals("0", ass.getObjProgram().get(1)); //the registers are replaced by their ids
+		assertEquals("1", ass.getObjProgram().get(2));
 		assertEquals(3, ass.getObjProgram().size()); //only two lines: the command and the address
 		
 		//final test: a small program
@@ -150,7 +160,7 @@ public class testAssembler {
 		//move %RPG0 %RPG1
 		//read adr3
 		//let's start!!!
-		returnedObj = new ArrayList<>();
+		returnedObj = new ObjectProgram();
 		ass = new Assembler();
 		commandLine[0] = "sub";
 		commandLine[1] = "adr1";
@@ -198,8 +208,8 @@ public class testAssembler {
 		assertEquals("86", returnedObj.get(10)); //the parameter
 		
 		assertEquals("9", returnedObj.get(11)); //the code of moveRegReg is 9
-		assertEquals("%RPG0", returnedObj.get(12)); //the parameter
-		assertEquals("%RPG1", returnedObj.get(13)); //the parameter
+		assertEquals("0", returnedObj.get(12)); //the parameter (RPG0 id)
+		assertEquals("1", returnedObj.get(13)); //the parameter (RPG1 id)
 		
 		assertEquals("5", returnedObj.get(14)); //the code of read is 5
 		assertEquals("&adr3", returnedObj.get(15)); //the parameter
@@ -208,7 +218,7 @@ public class testAssembler {
 	@Test
 	public void testParse() {
 		Assembler ass = new Assembler();
-		ArrayList<String> returnedObj = new ArrayList<>();
+		ObjectProgram returnedObj = new ObjectProgram();
 		ArrayList<String> sourceProgram = new ArrayList<>();
 		
 		//inserting the following program
@@ -284,8 +294,8 @@ public class testAssembler {
 		assertEquals("&var1", returnedObj.get(17)); //the parameter
 		
 		assertEquals("9", returnedObj.get(18)); //the code of moveRegReg is 9
-		assertEquals("%RPG1", returnedObj.get(19)); //the parameter
-		assertEquals("%RPG0", returnedObj.get(20)); //the parameter
+		assertEquals("1", returnedObj.get(19)); //the parameter (RPG1 id)
+		assertEquals("0", returnedObj.get(20)); //the parameter (RPG0 id)
 		
 		assertEquals("1", returnedObj.get(21)); //the code of sub is 1
 		assertEquals("&var3", returnedObj.get(22)); //the parameter
@@ -297,269 +307,262 @@ public class testAssembler {
 		//the line 'read var1' is just after the label
 		//once the command was inserted in the position 12, the label must 
 		//be pointing to the position 12
-		assertTrue(ass.getLabels().contains("label"));
+		assertTrue(ass.getLabels().containsKey("label"));
 		assertEquals(1, ass.getLabels().size());
-		assertEquals(1, ass.getLabelsAddresses().size());
-		assertEquals(0, ass.getLabels().indexOf("label"));
-		assertEquals(12, (int) ass.getLabelsAddresses().get(0));
+		assertEquals(12, (int) ass.getLabels().get("label"));
 		
 		//checking if all variables are stored in variables collection
-		assertEquals("var1", ass.getVariables().get(0));
-		assertEquals("var2", ass.getVariables().get(1));
-		assertEquals("var3", ass.getVariables().get(2));
+		//their addresses start in the end of the memory, in the declaration order
+		assertEquals(127, (int) ass.getVariables().get("var1"));
+		assertEquals(126, (int) ass.getVariables().get("var2"));
+		assertEquals(125, (int) ass.getVariables().get("var3"));
 	}
 
 	@Test
 	public void testReplaceVariable() {
 		
 		Assembler ass = new Assembler();
-		ArrayList<String> sampleexec = new ArrayList<>();
 		
-		//creating a fictional exec program with some variables
-		sampleexec.add("9");
-		sampleexec.add("&var1"); //var1 in the position 1
-		sampleexec.add("9");
-		sampleexec.add("9");
-		sampleexec.add("9");
-		sampleexec.add("&var2"); //var2 in the position 5
-		sampleexec.add("9");
-		sampleexec.add("&var1"); //var1 in the position 7
-		sampleexec.add("9");
-		sampleexec.add("9");
-		sampleexec.add("&var3"); //var3 in the position 10
-		sampleexec.add("9");
-		sampleexec.add("&var3"); //var3 in the position 12
-		sampleexec.add("9");
-		sampleexec.add("&var1"); //var1 in the position 14
+		//creating a fictional object program with some variables
+		ass.addWord("9");
+		ass.addWord("&var1"); //var1 in the position 1
+		ass.addWord("9");
+		ass.addWord("9");
+		ass.addWord("9");
+		ass.addWord("&var2"); //var2 in the position 5
+		ass.addWord("9");
+		ass.addWord("&var1"); //var1 in the position 7
+		ass.addWord("9");
+		ass.addWord("9");
+		ass.addWord("&var3"); //var3 in the position 10
+		ass.addWord("9");
+		ass.addWord("&var3"); //var3 in the position 12
+		ass.addWord("9");
+		ass.addWord("&var1"); //var1 in the position 14
+		
+		//only the positions using variables must be in the relocation table
+		assertEquals(6, ass.getObjProgram().getFixupsCount());
 		
 		//inserting this arraylist into the execprogram collections
-		ass.setExecProgram(sampleexec);
+		ass.setExecProgram(ass.getObjProgram().toArray());
 		
 		//now the test!
 		//var1 must be replaced by position 100
 		//var2 must be replaced by  position 99
 		//var2 must be replaced by  position 98
+		ass.getVariables().put("var1", 100);
+		ass.getVariables().put("var2", 99);
+		ass.getVariables().put("var3", 98);
 		
-		ass.replaceVariable("var1", 100);
-		ass.replaceVariable("var2", 99);
-		ass.replaceVariable("var3", 98);
+		ass.replaceSymbols();
 		
 		//getting the positions 
 		//var1 is now the address 100. It must be found in positions 1, 7 and 14 
-		assertEquals("100", ass.getExecProgram().get(1));
-		assertEquals("100", ass.getExecProgram().get(7));
-		assertEquals("100", ass.getExecProgram().get(14));
+		assertEquals(100, ass.getExecProgram()[1]);
+		assertEquals(100, ass.getExecProgram()[7]);
+		assertEquals(100, ass.getExecProgram()[14]);
 		
 		//var2 is now the address 99. It must be found in positions 5 
-		assertEquals("99", ass.getExecProgram().get(5));
+		assertEquals(99, ass.getExecProgram()[5]);
 		
 		//var3 is now the address 98. It must be found in positions 10 and 12
-		assertEquals("98", ass.getExecProgram().get(10));
-		assertEquals("98", ass.getExecProgram().get(12));
+		assertEquals(98, ass.getExecProgram()[10]);
+		assertEquals(98, ass.getExecProgram()[12]);
+		
+		//the other words are not changed
+		assertEquals(9, ass.getExecProgram()[0]);
 		
 	}
 	
 	@Test
 	public void testReplaceLabels() {
 		Assembler ass = new Assembler();
-		ArrayList<String> sampleexec = new ArrayList<>();
-		
-		//creating a fictional exec program with some labels
-		sampleexec.add("9");
-		sampleexec.add("&label1"); //label1 in the position 1
-		sampleexec.add("9");
-		sampleexec.add("9");
-		sampleexec.add("9");
-		sampleexec.add("&label2"); //label2 in the position 5
-		sampleexec.add("9");
-		sampleexec.add("&label1"); //label1 in the position 7
-		sampleexec.add("9");
-		sampleexec.add("9");
-		sampleexec.add("&label3"); //label3 in the position 10
-		sampleexec.add("9");
-		sampleexec.add("&label3"); //label3 in the position 12
-		sampleexec.add("9");
-		sampleexec.add("&label1"); //label1 in the position 14
-
-		//inserting the labels
-		ass.getLabels().add("label1");
-		ass.getLabels().add("label2");
-		ass.getLabels().add("label3");
+		
+		//creating a fictional object program with some labels
+		ass.addWord("9");
+		ass.addWord("&label1"); //label1 in the position 1
+		ass.addWord("9");
+		ass.addWord("9");
+		ass.addWord("9");
+		ass.addWord("&label2"); //label2 in the position 5
+		ass.addWord("9");
+		ass.addWord("&label1"); //label1 in the position 7
+		ass.addWord("9");
+		ass.addWord("9");
+		ass.addWord("&label3"); //label3 in the position 10
+		ass.addWord("9");
+		ass.addWord("&label3"); //label3 in the position 12
+		ass.addWord("9");
+		ass.addWord("&label1"); //label1 in the position 14
 
-		//and inserting the label addresses
-		ass.getLabelsAddresses().add(17); //label 1 means position 17
-		ass.getLabelsAddresses().add(42); //label 1 means position 42
-		ass.getLabelsAddresses().add(63); //label 1 means position 63
+		//inserting the labels and the addresses
+		ass.getLabels().put("label1", 17); //label 1 means position 17
+		ass.getLabels().put("label2", 42); //label 2 means position 42
+		ass.getLabels().put("label3", 63); //label 3 means position 63
 		
 		
 		//inserting this arraylist we made above into the execprogram collections
-		ass.setExecProgram(sampleexec);
+		ass.setExecProgram(ass.getObjProgram().toArray());
 		
 		
 		//now the test!
-		ass.replaceLabels();
-		//label1 (now refering to position 17) in positions 10 and 12
-		assertEquals("17", ass.getExecProgram().get(1));
-		assertEquals("17", ass.getExecProgram().get(7));
-		assertEquals("17", ass.getExecProgram().get(14));
+		ass.replaceSymbols();
+		//label1 (now refering to position 17) in positions 1, 7 and 14
+		assertEquals(17, ass.getExecProgram()[1]);
+		assertEquals(17, ass.getExecProgram()[7]);
+		assertEquals(17, ass.getExecProgram()[14]);
 		
 		//label2 (now refering to position 42) in positions 5
-		assertEquals("42", ass.getExecProgram().get(5));
+		assertEquals(42, ass.getExecProgram()[5]);
 		
-		//label3 (now refering to position 63) in positions 1, 7 and 14
-		assertEquals("63", ass.getExecProgram().get(10));
-		assertEquals("63", ass.getExecProgram().get(12));
+		//label3 (now refering to position 63) in positions 10 and 12
+		assertEquals(63, ass.getExecProgram()[10]);
+		assertEquals(63, ass.getExecProgram()[12]);
 	}
 
 	@Test
 	public void testReplaceAllVariables() {
 		Assembler ass = new Assembler();
-		ArrayList<String> sampleexec = new ArrayList<>();
 		
-		//creating a fictional exec program with some variables
-		sampleexec.add("9");
-		sampleexec.add("&var1"); //var1 in the position 1
-		sampleexec.add("9");
-		sampleexec.add("9");
-		sampleexec.add("9");
-		sampleexec.add("&var2"); //var2 in the position 5
-		sampleexec.add("9");
-		sampleexec.add("&var1"); //var1 in the position 7
-		sampleexec.add("9");
-		sampleexec.add("9");
-		sampleexec.add("&var3"); //var3 in the position 10
-		sampleexec.add("9");
-		sampleexec.add("&var3"); //var3 in the position 12
-		sampleexec.add("9");
-		sampleexec.add("&var1"); //var1 in the position 14
+		//creating a fictional object program with some variables
+		ass.addWord("9");
+		ass.addWord("&var1"); //var1 in the position 1
+		ass.addWord("9");
+		ass.addWord("9");
+		ass.addWord("9");
+		ass.addWord("&var2"); //var2 in the position 5
+		ass.addWord("9");
+		ass.addWord("&var1"); //var1 in the position 7
+		ass.addWord("9");
+		ass.addWord("9");
+		ass.addWord("&var3"); //var3 in the position 10
+		ass.addWord("9");
+		ass.addWord("&var3"); //var3 in the position 12
+		ass.addWord("9");
+		ass.addWord("&var1"); //var1 in the position 14
 		
 		//inserting this arraylist into the execprogram collections
-		ass.setExecProgram(sampleexec);
+		ass.setExecProgram(ass.getObjProgram().toArray());
 		
-		//now inserting variables
-		ass.getVariables().add("var1");
-		ass.getVariables().add("var2");
-		ass.getVariables().add("var3");
+		//now declaring variables
+		ass.addVariable("var1");
+		ass.addVariable("var2");
+		ass.addVariable("var3");
+		ass.addVariable("var1"); //declaring it again doesn't change its address
 		
 		//in this architecture, the memory size is 128
 		//so, var1 must be replaced by 127, var2 by 126 and var3 by 125
-		ass.replaceAllVariables();
-		//var1 (now 127) is in lines 5, 7 and 14
-		assertEquals("127", ass.getExecProgram().get(1));
-		assertEquals("127", ass.getExecProgram().get(7));
-		assertEquals("127", ass.getExecProgram().get(14));
+		ass.replaceSymbols();
+		//var1 (now 127) is in lines 1, 7 and 14
+		assertEquals(127, ass.getExecProgram()[1]);
+		assertEquals(127, ass.getExecProgram()[7]);
+		assertEquals(127, ass.getExecProgram()[14]);
 		
 		//var2 (now 126) is in line 5
-		assertEquals("126", ass.getExecProgram().get(5));
+		assertEquals(126, ass.getExecProgram()[5]);
 		
 		//var3 (now 125) is in lines 10 and 12
-		assertEquals("125", ass.getExecProgram().get(10));
-		assertEquals("125", ass.getExecProgram().get(12));
+		assertEquals(125, ass.getExecProgram()[10]);
+		assertEquals(125, ass.getExecProgram()[12]);
 	}
 	
 	@Test
 	public void testReplaceRegisters() {
 		
 		Assembler ass = new Assembler();
-		ArrayList<String> sampleexec = new ArrayList<>();
-		
-		//creating a fictional exec program with some registers
-		sampleexec.add("9");
-		sampleexec.add("%RPG1"); //rpg1 in the position 1
-		sampleexec.add("9");
-		sampleexec.add("9");
-		sampleexec.add("%PC"); //pc is in position 4
-		sampleexec.add("9");
-		sampleexec.add("%RPG0"); //rpg0 is in position 6
-		sampleexec.add("9");
-		sampleexec.add("9");
-		sampleexec.add("%IR"); //ir in the position 9
-		sampleexec.add("9");
-		sampleexec.add("%RPG0"); //rpg0 in the position 11
-		sampleexec.add("9");
-		sampleexec.add("%RPG1"); //rpg1 in the position 13
 		
-		//inserting this arraylist into the execprogram collections
-		ass.setExecProgram(sampleexec);
-		
-		//now the test!
+		//creating a fictional object program with some registers
+		ass.addWord("9");
+		ass.addWord("%RPG1"); //rpg1 in the position 1
+		ass.addWord("9");
+		ass.addWord("9");
+		ass.addWord("%PC"); //pc is in position 4
+		ass.addWord("9");
+		ass.addWord("%RPG0"); //rpg0 is in position 6
+		ass.addWord("9");
+		ass.addWord("9");
+		ass.addWord("%IR"); //ir in the position 9
+		ass.addWord("9");
+		ass.addWord("%RPG0"); //rpg0 in the position 11
+		ass.addWord("9");
+		ass.addWord("%RPG1"); //rpg1 in the position 13
+		
+		//the registers are replaced by their ids when they are added
 		//RPG0 must be replaced by 0 
 		//RPG1 must be replaced by 1
-		//PC must be replaced by 2
-		//IR must be replaced by 3
-		
-		ass.replaceRegisters();
+		//PC must be replaced by 4
+		//IR must be replaced by 5
 		
 		//getting the positions 
 		//rpg0 is now the number 0. It must be found in positions 6 and 11
-		assertEquals("0", ass.getExecProgram().get(6));
-		assertEquals("0", ass.getExecProgram().get(11));
+		assertEquals(0, ass.getObjProgram().getWord(6));
+		assertEquals(0, ass.getObjProgram().getWord(11));
 		
 		//rpg1 is now the number 1. It must be found in positions 1 and 13 
-		assertEquals("1", ass.getExecProgram().get(1));
-		assertEquals("1", ass.getExecProgram().get(13));
+		assertEquals(1, ass.getObjProgram().getWord(1));
+		assertEquals(1, ass.getObjProgram().getWord(13));
 		
-		//pc is now the number 2. It must be found in position 4 
-		assertEquals("2", ass.getExecProgram().get(4));
+		//pc is now the number 4. It must be found in position 4 
+		assertEquals(4, ass.getObjProgram().getWord(4));
 
-		//ir is now the number 3. It must be found in position 9 
-		assertEquals("3", ass.getExecProgram().get(9));
+		//ir is now the number 5. It must be found in position 9 
+		assertEquals(5, ass.getObjProgram().getWord(9));
 		
-
+		//registers don't need relocation
+		assertEquals(0, ass.getObjProgram().getFixupsCount());
 		
 	}
 	
 	@Test
 	public void testCheckLabels() {
 		Assembler ass = new Assembler();
-		ArrayList<String> sampleexec = new ArrayList<>();
 		
 		//creating a fictional exec program with some variables
-		ass.getObjProgram().add("9");
-		ass.getObjProgram().add("&label1"); 
-		ass.getObjProgram().add("9");
-		ass.getObjProgram().add("9");
-		ass.getObjProgram().add("9");
-		ass.getObjProgram().add("&label2"); 
-		ass.getObjProgram().add("9");
-		ass.getObjProgram().add("&var1"); 
-		ass.getObjProgram().add("9");
-		ass.getObjProgram().add("9");
-		ass.getObjProgram().add("&label3"); 
-		ass.getObjProgram().add("9");
-		ass.getObjProgram().add("&label3"); 
-		ass.getObjProgram().add("9");
-		ass.getObjProgram().add("&var1"); 
-		ass.getObjProgram().add("9");
-		ass.getObjProgram().add("&label1"); 
-		ass.getObjProgram().add("9");
-		ass.getObjProgram().add("9");
-		ass.getObjProgram().add("9");
-		ass.getObjProgram().add("&var2"); 
-		ass.getObjProgram().add("9");
-		ass.getObjProgram().add("&var1"); 
-		ass.getObjProgram().add("9");
-		ass.getObjProgram().add("9");
-		ass.getObjProgram().add("&label3"); 
-		ass.getObjProgram().add("9");
-		ass.getObjProgram().add("&var3"); 
-		ass.getObjProgram().add("9");
-		ass.getObjProgram().add("&label1"); 
+		ass.addWord("9");
+		ass.addWord("&label1"); 
+		ass.addWord("9");
+		ass.addWord("9");
+		ass.addWord("9");
+		ass.addWord("&label2"); 
+		ass.addWord("9");
+		ass.addWord("&var1"); 
+		ass.addWord("9");
+		ass.addWord("9");
+		ass.addWord("&label3"); 
+		ass.addWord("9");
+		ass.addWord("&label3"); 
+		ass.addWord("9");
+		ass.addWord("&var1"); 
+		ass.addWord("9");
+		ass.addWord("&label1"); 
+		ass.addWord("9");
+		ass.addWord("9");
+		ass.addWord("9");
+		ass.addWord("&var2"); 
+		ass.addWord("9");
+		ass.addWord("&var1"); 
+		ass.addWord("9");
+		ass.addWord("9");
+		ass.addWord("&label3"); 
+		ass.addWord("9");
+		ass.addWord("&var3"); 
+		ass.addWord("9");
+		ass.addWord("&label1"); 
 		
 		
 		//case 1: some labels are not found
 		
 						//inserting the labels
-						ass.getLabels().add("label1");
-						ass.getLabels().add("label2");
+						ass.getLabels().put("label1", 0);
+						ass.getLabels().put("label2", 0);
 						//label 3 is missing
 						
 
 								
 						//now inserting variables
-						ass.getVariables().add("var1");
-						ass.getVariables().add("var2");
-						ass.getVariables().add("var3");
+						ass.addVariable("var1");
+						ass.addVariable("var2");
+						ass.addVariable("var3");
 
 		
 						assertFalse(ass.checkLabels());
@@ -572,14 +575,14 @@ public class testAssembler {
 
 
 						//inserting the labels
-						ass.getLabels().add("label1");
-						ass.getLabels().add("label2");
-						ass.getLabels().add("label3");
+						ass.getLabels().put("label1", 0);
+						ass.getLabels().put("label2", 0);
+						ass.getLabels().put("label3", 0);
 				
 								
 						//now inserting variables
-						ass.getVariables().add("var1");
-						ass.getVariables().add("var2");
+						ass.addVariable("var1");
+						ass.addVariable("var2");
 						//var3 is missing
 		
 						assertFalse(ass.checkLabels());
@@ -591,21 +594,97 @@ public class testAssembler {
 
 
 						//inserting the labels
-						ass.getLabels().add("label1");
-						ass.getLabels().add("label2");
-						ass.getLabels().add("label3");
+						ass.getLabels().put("label1", 0);
+						ass.getLabels().put("label2", 0);
+						ass.getLabels().put("label3", 0);
 				
 								
 						//now inserting variables
-						ass.getVariables().add("var1");
-						ass.getVariables().add("var2");
-						ass.getVariables().add("var3");
+						ass.addVariable("var1");
+						ass.addVariable("var2");
+						ass.addVariable("var3");
 		
 						assertTrue(ass.checkLabels());
 		
 	}
 	
 	
+	@Test
+	public void testAssembleStream() throws IOException {
+		File dir = folder.getRoot();
+		String filename = new File(dir, "program").getPath();
+		//a forward jump (label declared after its use) and a backward one
+		Files.write(new File(filename+".dsf").toPath(), Arrays.asList(
+				"var1",
+				"var2",
+				"ldi %RPG0 10",
+				"jmp end",
+				"begin:",
+				"moveRegReg %RPG1 %RPG0",
+				"addRegMem %RPG0 &var1",
+				"jn begin",
+				"",
+				"end:",
+				"\tmoveMemReg   &var2 %RPG3",
+				"imulRegReg %RPG2 %RPG3"));
+		
+		//the streaming mode must create the same executable
+		Assembler ass = new Assembler();
+		ass.read(filename);
+		ass.parse();
+		ass.makeExecutable(filename);
+		byte expected[] = Files.readAllBytes(new File(filename+".dxf").toPath());
+		
+		new Assembler().assembleStream(filename);
+		assertArrayEquals(expected, Files.readAllBytes(new File(filename+".dxf").toPath()));
+		
+		//a label never declared: no executable
+		Files.write(new File(filename+".dsf").toPath(), Arrays.asList("jmp nowhere"));
+		new File(filename+".dxf").delete();
+		new Assembler().assembleStream(filename);
+		assertFalse(new File(filename+".dxf").exists());
+	}
+	
+	
+	@Test
+	public void testParseParallel() {
+		ArrayList<String> source = new ArrayList<>();
+		source.add("var1");
+		source.add("var2");
+		source.add("label1:");
+		source.add("ldi %RPG0 10");
+		source.add("jmp label2"); //a label in a later chunk
+		source.add("var3"); //a variable declared in the middle of the program
+		source.add("addRegMem %RPG0 &var3");
+		source.add("label2:");
+		source.add("");
+		source.add("moveMemReg &var1 %RPG1");
+		source.add("jn label1"); //a label in an earlier chunk
+		source.add("var1"); //declared again
+		source.add("label3:");
+		
+		Assembler expected = new Assembler();
+		expected.setLines(source);
+		expected.parse();
+		
+		for (int chunkLines=1;chunkLines<=source.size();chunkLines++) {
+			Assembler ass = new Assembler();
+			ass.setLines(source);
+			ass.parseParallel(ForkJoinPool.commonPool(), chunkLines);
+			assertEquals(expected.getObjProgram().size(), ass.getObjProgram().size());
+			for (int i=0;i<ass.getObjProgram().size();i++)
+				assertEquals(expected.getObjProgram().get(i), ass.getObjProgram().get(i));
+			assertEquals(expected.getLabels(), ass.getLabels());
+			assertEquals(new ArrayList<>(expected.getVariables().entrySet()), new ArrayList<>(ass.getVariables().entrySet()));
+		}
+		
+		//no lines at all
+		Assembler ass = new Assembler();
+		ass.parseParallel(ForkJoinPool.commonPool(), 4);
+		assertEquals(0, ass.getObjProgram().size());
+	}
+	
+	
 	//@Test
 	public void testRead() {
 		fail("Not yet implemented");
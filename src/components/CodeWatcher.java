@@ -0,0 +1,15 @@
+package components;
+
+/**
+ * This interface is implemented by the components that keep decoded copies of the program.
+ * The memory uses it to tell them a position holding code was changed
+ */
+public interface CodeWatcher {
+
+	/**
+	 * This method is called after a data is stored into a position marked as code
+	 * @param position
+	 */
+	public void codeChanged(int position);
+
+}
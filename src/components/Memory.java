@@ -1,30 +1,305 @@
 package components;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
 public class Memory {
 	
+	//the memory is split in pages, allocated only when a position in them is stored
+	public static final int PAGE_BITS = 12;
+	public static final int PAGE_SIZE = 1<<PAGE_BITS; //words in each page
+	private static final int PAGE_MASK = PAGE_SIZE-1;
+	
 	private Bus bus;
 	private int storePosition; //this value indicates that the memory has read an
 					// address and is waiting for a data to be storesd in this position
 	private int size;
-	private int dataList[];
+	private int pages[][]; //null pages were never stored: all their positions have 0
+	private IntBuffer offHeapPages[]; //the pages out of the java heap (null if the memory is in the heap)
+	//copy on write: the pages (and the pages arrays) can be shared by forked memories.
+	//A page can be changed in place only by the memory owning it; the others copy it before the first store
+	private Object owner; //the tag of the pages this memory owns
+	private Object owners[]; //the owner of each page
+	private boolean sharedPages; //the pages arrays are shared with other memory
+	private boolean forked; //some page was shared with other memory
+	private int dirtyLow; //the range of positions stored since the memory was created (or reset)
+	private int dirtyHigh;
+	private static final int ZEROS[] = new int[PAGE_SIZE]; //used to clear the off heap pages
+	private long codeMap[][]; //one bit per position, by page. 1 means the position is used by a decoded instruction
+	private CodeWatcher codeWatcher; //who must know when a position marked as code is changed
 	
+	/**
+	 * Memories with up to PAGE_SIZE positions are a single page, allocated at once.
+	 * Bigger ones allocate their pages only when they are used
+	 * @param size up to Integer.MAX_VALUE positions
+	 * @param bus
+	 */
 	public Memory(int size, Bus bus) {
+		this(size, bus, false);
+	}
+
+	/**
+	 * Constructor that allows keeping the pages out of the java heap (in direct buffers),
+	 * so big memories don't need a big heap. All the pages are allocated only when they are used.
+	 * The direct buffers are limited by -XX:MaxDirectMemorySize, which is the -Xmx size by default:
+	 * with a small heap, the flag must be given for the memory to grow bigger than the heap
+	 * @param size up to Integer.MAX_VALUE positions
+	 * @param bus
+	 * @param offHeap
+	 */
+	public Memory(int size, Bus bus, boolean offHeap) {
 		storePosition = -1; //negative values indicates the memory is not storing
 		this.size = size;
-		dataList = new int[size];
+		owner = new Object();
+		newPages(offHeap);
 		this.bus = bus;
-		for (int i=0;i<size;i++) {
-			dataList[i] = 0;
+	}
+
+	/**
+	 * This method creates the pages arrays: no page is stored
+	 * @param offHeap
+	 */
+	private void newPages(boolean offHeap) {
+		int pagesCount = (int) (((long) size+PAGE_MASK)>>>PAGE_BITS);
+		owners = new Object[pagesCount];
+		pages = null;
+		offHeapPages = null;
+		if (offHeap)
+			offHeapPages = new IntBuffer[pagesCount];
+		else {
+			pages = new int[pagesCount][];
+			if (size <= PAGE_SIZE) {
+				pages[0] = new int[size];
+				owners[0] = owner;
+			}
 		}
+		sharedPages = false;
+		forked = false;
+		dirtyLow = Integer.MAX_VALUE;
+		dirtyHigh = -1;
+	}
+
+	/**
+	 * This constructor creates a fork of the memory (see fork)
+	 * @param memory
+	 * @param bus
+	 */
+	private Memory(Memory memory, Bus bus) {
+		this.bus = bus;
+		storePosition = memory.storePosition;
+		size = memory.size;
+		pages = memory.pages;
+		offHeapPages = memory.offHeapPages;
+		owners = memory.owners;
+		owner = new Object();
+		sharedPages = true;
+		forked = true;
+		dirtyLow = memory.dirtyLow; //the data shared was stored too
+		dirtyHigh = memory.dirtyHigh;
 	}
 
 	/**
-	 * This method is used for TDD and Simulation purposes only
+	 * This method creates a memory with the same data, attached to the bus.
+	 * Nothing is copied now: both memories share the pages until they store into them,
+	 * so forking costs the same for any memory size.
+	 * The positions marked as code are not marked in the new memory
+	 * @param bus
+	 * @return
+	 */
+	public Memory fork(Bus bus) {
+		Memory fork = new Memory(this, bus);
+		owner = new Object(); //the pages are shared now: this memory doesn't own them anymore
+		sharedPages = true;
+		forked = true;
+		return fork;
+	}
+
+	/**
+	 * This method is used for TDD and Simulation purposes only.
+	 * Only memories with a single page have a data list
 	 * NOT TESTED
 	 * @return
 	 */
 	public int[] getDataList() {
-		return dataList;
+		if (!hasDataList())
+			throw new UnsupportedOperationException("the memory has no data list: it is paged or out of the heap");
+		dirty(0, size-1); //the list can be changed
+		return page(0); //it can't be shared
+	}
+
+	/**
+	 * @return true if the memory is a single page in the heap (see getDataList)
+	 */
+	public boolean hasDataList() {
+		return (offHeapPages == null)&&(size <= PAGE_SIZE);
+	}
+
+	/**
+	 * This method returns the page of the position, allocating it if it was never stored
+	 * @param position
+	 * @return
+	 */
+	private int[] page(int position) {
+		int index = position>>>PAGE_BITS;
+		int page[] = pages[index];
+		if ((page == null)||(owners[index] != owner)) {
+			ownPagesArrays();
+			if (page == null)
+				page = new int[Math.min(PAGE_SIZE, size-(position & ~PAGE_MASK))]; //the last page can be smaller
+			else
+				page = page.clone(); //the page is shared
+			pages[index] = page;
+			owners[index] = owner;
+		}
+		return page;
+	}
+
+	/**
+	 * This method copies the pages arrays, if they are shared, before changing them
+	 */
+	private void ownPagesArrays() {
+		if (sharedPages) {
+			if (pages != null)
+				pages = pages.clone();
+			else
+				offHeapPages = offHeapPages.clone();
+			owners = owners.clone();
+			sharedPages = false;
+		}
+	}
+
+	/**
+	 * This method allocates an off heap page
+	 * @param length
+	 * @return
+	 */
+	private static IntBuffer allocateDirect(int length) {
+		try {
+			return ByteBuffer.allocateDirect(length*Integer.BYTES).order(ByteOrder.nativeOrder()).asIntBuffer();
+		}
+		catch (OutOfMemoryError e) {
+			OutOfMemoryError full = new OutOfMemoryError("there is no direct memory for more off heap pages: "
+					+"use -XX:MaxDirectMemorySize (it is the -Xmx size by default)");
+			full.initCause(e);
+			throw full;
+		}
+	}
+
+	/**
+	 * This method returns the off heap page of the position, allocating it if it was never stored
+	 * @param position
+	 * @return
+	 */
+	private IntBuffer offHeapPage(int position) {
+		int index = position>>>PAGE_BITS;
+		IntBuffer page = offHeapPages[index];
+		if ((page == null)||(owners[index] != owner)) {
+			ownPagesArrays();
+			int length = Math.min(PAGE_SIZE, size-(position & ~PAGE_MASK)); //the last page can be smaller
+			IntBuffer shared = page;
+			page = allocateDirect(length);
+			if (shared != null)
+				page.put(0, shared, 0, length);
+			offHeapPages[index] = page;
+			owners[index] = owner;
+		}
+		return page;
+	}
+
+	/**
+	 * This method writes the data into the position, without checking the code map
+	 * @param position
+	 * @param data
+	 */
+	private void write(int position, int data) {
+		if (offHeapPages != null)
+			offHeapPage(position).put(position & PAGE_MASK, data);
+		else
+			page(position)[position & PAGE_MASK] = data;
+		if (position < dirtyLow) //only after writing: positions out of the memory are never stored
+			dirtyLow = position;
+		if (position > dirtyHigh)
+			dirtyHigh = position;
+	}
+
+	/**
+	 * This method includes the positions into the range of positions stored
+	 * @param low
+	 * @param high
+	 */
+	private void dirty(int low, int high) {
+		if (low < dirtyLow)
+			dirtyLow = low;
+		if (high > dirtyHigh)
+			dirtyHigh = high;
+	}
+
+	/**
+	 * This method makes the memory as it was created: all the positions have 0, no position is code
+	 * and the memory is not storing. Only the positions stored since then are cleared, and the pages
+	 * are kept to be used again. A memory that was forked gets new pages (the shared ones have data
+	 * stored by other memories)
+	 */
+	public void reset() {
+		storePosition = -1;
+		clearCode();
+		if (forked) {
+			newPages(offHeapPages != null);
+			return;
+		}
+		if (dirtyHigh < 0) //nothing was stored
+			return;
+		for (int index=dirtyLow>>>PAGE_BITS;index<=dirtyHigh>>>PAGE_BITS;index++) {
+			int first = Math.max(dirtyLow, index<<PAGE_BITS) & PAGE_MASK;
+			int last = Math.min(dirtyHigh, (index<<PAGE_BITS)|PAGE_MASK) & PAGE_MASK;
+			if (offHeapPages != null) {
+				if (offHeapPages[index] != null)
+					offHeapPages[index].put(first, ZEROS, 0, last-first+1);
+			}
+			else if (pages[index] != null)
+				Arrays.fill(pages[index], first, last+1, 0);
+		}
+		dirtyLow = Integer.MAX_VALUE;
+		dirtyHigh = -1;
+	}
+
+	/**
+	 * @return the position after the last one stored since the memory was created (or reset).
+	 * 		All the positions from there on are 0
+	 */
+	public int getStoredEnd() {
+		return dirtyHigh+1;
+	}
+
+	/**
+	 * @return the amount of pages allocated (the ones stored at least once)
+	 */
+	public int getAllocatedPages() {
+		int allocated = 0;
+		int count = (offHeapPages != null) ? offHeapPages.length : pages.length;
+		for (int i=0;i<count;i++) {
+			if ((offHeapPages != null) ? (offHeapPages[i] != null) : (pages[i] != null))
+				allocated++;
+		}
+		return allocated;
+	}
+
+	/**
+	 * @param position
+	 * @return true if the page of the position is allocated (all the positions of the other pages are 0)
+	 */
+	public boolean isAllocated(int position) {
+		int index = position>>>PAGE_BITS;
+		return (offHeapPages != null) ? (offHeapPages[index] != null) : (pages[index] != null);
+	}
+
+	/**
+	 * @return true if the pages are out of the java heap
+	 */
+	public boolean isOffHeap() {
+		return offHeapPages != null;
 	}
 
 	/**
@@ -36,7 +311,8 @@ public class Memory {
 			this.storePosition = bus.get();
 		}
 		else {//the storing was initiated, in the bus is the data
-			this.dataList[storePosition] = bus.get();
+			write(storePosition, bus.get());
+			checkCode(storePosition);
 			storePosition = -1; //no storing is being performed anymore
 		}
 	}
@@ -47,7 +323,221 @@ public class Memory {
 	 */
 	public void read() {
 		if ((bus.get() < size)&&(bus.get() >=0))
-			bus.put(dataList[bus.get()]);
+			bus.put(readDirect(bus.get()));
+	}
+	
+	/**
+	 * This method returns the data stored in the position without using the bus.
+	 * It is used by the execution engines that don't simulate the bus transfers
+	 * @param position
+	 * @return
+	 */
+	public int readDirect(int position) {
+		if (offHeapPages != null) {
+			IntBuffer page = offHeapPages[position>>>PAGE_BITS];
+			return (page == null) ? 0 : page.get(position & PAGE_MASK);
+		}
+		int page[] = pages[position>>>PAGE_BITS];
+		if (page == null)
+			return 0;
+		return page[position & PAGE_MASK];
+	}
+	
+	/**
+	 * This method stores the data into the position without using the bus.
+	 * It is used by the execution engines that don't simulate the bus transfers
+	 * @param position
+	 * @param data
+	 */
+	public void storeDirect(int position, int data) {
+		write(position, data);
+		checkCode(position);
+	}
+	
+	/**
+	 * This method stores all the words remaining in the buffer, from the position on, at once.
+	 * It is used by the loaders of binary executables
+	 * @param position
+	 * @param words
+	 */
+	public void load(int position, IntBuffer words) {
+		int length = words.remaining();
+		int end = bulkRange(position, length);
+		for (int i=position;i<end;) { //page by page
+			int count = Math.min(end-i, PAGE_SIZE-(i & PAGE_MASK));
+			if (offHeapPages != null) {
+				offHeapPage(i).put(i & PAGE_MASK, words, words.position(), count);
+				words.position(words.position()+count);
+			}
+			else
+				words.get(page(i), i & PAGE_MASK, count);
+			i += count;
+		}
+		checkCode(position, end);
+	}
+
+	/**
+	 * This method stores length words of the array, from the offset, into the memory from the position on, at once.
+	 * It is used by the program loaders
+	 * @param position
+	 * @param words
+	 * @param offset
+	 * @param length
+	 */
+	public void load(int position, int words[], int offset, int length) {
+		int end = bulkRange(position, length);
+		for (int i=position;i<end;) { //page by page
+			int count = Math.min(end-i, PAGE_SIZE-(i & PAGE_MASK));
+			if (offHeapPages != null)
+				offHeapPage(i).put(i & PAGE_MASK, words, offset+i-position, count);
+			else
+				System.arraycopy(words, offset+i-position, page(i), i & PAGE_MASK, count);
+			i += count;
+		}
+		checkCode(position, end);
+	}
+
+	/**
+	 * This method copies length words of the memory, from the position on, into the array from the offset.
+	 * The positions never stored are copied as 0
+	 * @param position
+	 * @param words
+	 * @param offset
+	 * @param length
+	 */
+	public void copyOut(int position, int words[], int offset, int length) {
+		if ((position < 0)||(length < 0)||(length > size-position))
+			throw new IndexOutOfBoundsException("the range isn't in the memory: "+position+" to "+(position+length-1));
+		int end = position+length;
+		for (int i=position;i<end;) { //page by page
+			int count = Math.min(end-i, PAGE_SIZE-(i & PAGE_MASK));
+			int index = i>>>PAGE_BITS;
+			if ((offHeapPages != null) ? (offHeapPages[index] == null) : (pages[index] == null))
+				Arrays.fill(words, offset+i-position, offset+i-position+count, 0);
+			else if (offHeapPages != null)
+				offHeapPages[index].get(i & PAGE_MASK, words, offset+i-position, count);
+			else
+				System.arraycopy(pages[index], i & PAGE_MASK, words, offset+i-position, count);
+			i += count;
+		}
+	}
+
+	/**
+	 * This method stores the value into length positions of the memory, from the position on, at once
+	 * @param position
+	 * @param length
+	 * @param value
+	 */
+	public void fill(int position, int length, int value) {
+		int end = bulkRange(position, length);
+		for (int i=position;i<end;) { //page by page
+			int count = Math.min(end-i, PAGE_SIZE-(i & PAGE_MASK));
+			if (offHeapPages != null) {
+				IntBuffer page = offHeapPage(i);
+				for (int j=i & PAGE_MASK;j<(i & PAGE_MASK)+count;j++)
+					page.put(j, value);
+			}
+			else
+				Arrays.fill(page(i), i & PAGE_MASK, (i & PAGE_MASK)+count, value);
+			i += count;
+		}
+		checkCode(position, end);
+	}
+
+	/**
+	 * This method checks the range of a bulk storing and includes it into the positions stored
+	 * @param position
+	 * @param length
+	 * @return the position after the range
+	 */
+	private int bulkRange(int position, int length) {
+		if ((position < 0)||(length < 0)||(length > size-position))
+			throw new IndexOutOfBoundsException("the words don't fit in the memory from "+position);
+		if (length > 0)
+			dirty(position, position+length-1);
+		return position+length;
+	}
+
+	/**
+	 * This method sets who must be told when a position marked as code is changed.
+	 * All the positions marked before are unmarked
+	 * @param codeWatcher
+	 */
+	public void setCodeWatcher(CodeWatcher codeWatcher) {
+		this.codeWatcher = codeWatcher;
+		clearCode();
+	}
+	
+	/**
+	 * This method marks the position as used by a decoded instruction
+	 * @param position
+	 */
+	public void markCode(int position) {
+		if (codeMap == null)
+			codeMap = new long[(int) (((long) size+PAGE_MASK)>>>PAGE_BITS)][];
+		long map[] = codeMap[position>>>PAGE_BITS];
+		if (map == null) {
+			map = new long[PAGE_SIZE/64];
+			codeMap[position>>>PAGE_BITS] = map;
+		}
+		map[(position & PAGE_MASK)>>>6] |= 1L << position;
+	}
+	
+	/**
+	 * This method returns true if the position is used by a decoded instruction
+	 * @param position
+	 * @return
+	 */
+	public boolean isCode(int position) {
+		if (codeMap == null)
+			return false;
+		long map[] = codeMap[position>>>PAGE_BITS];
+		return (map != null)&&((map[(position & PAGE_MASK)>>>6] & (1L << position)) != 0);
+	}
+	
+	/**
+	 * This method unmarks all the positions marked as code
+	 */
+	public void clearCode() {
+		codeMap = null;
+	}
+	
+	/**
+	 * This method checks the positions from first to end (exclusive) after a bulk storing
+	 * @param first
+	 * @param end
+	 */
+	private void checkCode(int first, int end) {
+		if (codeMap != null) {
+			for (int i=first;i<end;i++)
+				checkCode(i);
+		}
+	}
+	
+	/**
+	 * This method is used after each storing. If the position was marked as code, it is unmarked
+	 * and the code watcher is told the code was changed
+	 * @param position
+	 */
+	private void checkCode(int position) {
+		if (isCode(position)) {
+			codeMap[position>>>PAGE_BITS][(position & PAGE_MASK)>>>6] &= ~(1L << position);
+			if (codeWatcher != null)
+				codeWatcher.codeChanged(position);
+		}
+	}
+	
+	/**
+	 * This method returns true if the memory has read an address and is waiting for the data.
+	 * The execution engines that don't use the bus must leave the memory alone in this case
+	 * @return
+	 */
+	public boolean isStoring() {
+		return storePosition >= 0;
+	}
+	
+	public int getSize() {
+		return size;
 	}
 
 
@@ -24,6 +24,15 @@ public class Register {
 		return data;
 	}
 	
+	/**
+	 * This method sets the data without using any bus.
+	 * It is used by the execution engines that don't simulate the bus transfers
+	 * @param data
+	 */
+	public void setData(int data) {
+		this.data = data;
+	}
+	
 	/**
 	 * This special constructor is used to make Flags register
 	 * with special bits for special informations
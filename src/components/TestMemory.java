@@ -2,6 +2,12 @@ package components;
 
 import static org.junit.Assert.*;
 
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.IntBuffer;
+
 import org.junit.Test;
 
 public class TestMemory {
@@ -50,5 +56,311 @@ public class TestMemory {
 		
 	}
 
+	@Test
+	public void testCodeMap() {
+		Bus bus = new Bus();
+		Memory memory = new Memory(100, bus);
+		final int changed[] = {-1};
+		memory.setCodeWatcher(new CodeWatcher() {
+			public void codeChanged(int position) {
+				changed[0] = position;
+			}
+		});
+		memory.markCode(70);
+		assertTrue(memory.isCode(70));
+		assertFalse(memory.isCode(6)); //70 and 6 share the same bit in different words
+		
+		//storing out of the code makes no effect into the watcher
+		memory.storeDirect(71, 5);
+		assertEquals(-1, changed[0]);
+		
+		//storing into the code (by using the bus) tells the watcher and unmarks the position
+		bus.put(70);
+		memory.store();
+		bus.put(3);
+		memory.store();
+		assertEquals(70, changed[0]);
+		assertFalse(memory.isCode(70));
+	}
+
+	@Test
+	public void testPages() {
+		Bus bus = new Bus();
+		Memory memory = new Memory(Integer.MAX_VALUE, bus); //the biggest memory: no page is allocated
+		assertEquals(0, memory.getAllocatedPages());
+		assertEquals(0, memory.readDirect(Integer.MAX_VALUE-1));
+		bus.put(123456789);
+		memory.read();
+		assertEquals(0, bus.get());
+		assertEquals(0, memory.getAllocatedPages()); //reading allocates nothing
+		
+		//storing in the first and in the last positions allocates two pages
+		memory.storeDirect(0, 7);
+		bus.put(Integer.MAX_VALUE-1);
+		memory.store();
+		bus.put(-9);
+		memory.store();
+		assertEquals(2, memory.getAllocatedPages());
+		assertEquals(7, memory.readDirect(0));
+		assertEquals(-9, memory.readDirect(Integer.MAX_VALUE-1));
+		
+		//loading words across two pages
+		int words[] = {1, 2, 3, 4};
+		memory.load(Memory.PAGE_SIZE*5-2, IntBuffer.wrap(words));
+		for (int i=0;i<words.length;i++)
+			assertEquals(words[i], memory.readDirect(Memory.PAGE_SIZE*5-2+i));
+		assertEquals(4, memory.getAllocatedPages());
+		
+		//the code map is paged too
+		memory.markCode(Integer.MAX_VALUE-1);
+		assertTrue(memory.isCode(Integer.MAX_VALUE-1));
+		assertFalse(memory.isCode(Integer.MAX_VALUE-65));
+		assertFalse(memory.isCode(0));
+		
+		//the last page is smaller: storing out of the memory fails
+		memory = new Memory(Memory.PAGE_SIZE+10, bus);
+		memory.storeDirect(Memory.PAGE_SIZE+9, 1);
+		try {
+			memory.storeDirect(Memory.PAGE_SIZE+10, 1);
+			fail("the position is out of the memory");
+		}
+		catch (ArrayIndexOutOfBoundsException e) {
+		}
+	}
+
+	/**
+	 * This program fills 8 MB of an off heap memory. It is executed by testDirectLimit
+	 * with a smaller direct memory limit
+	 */
+	public static class FillOffHeap {
+		public static void main(String[] args) {
+			Memory memory = new Memory(Integer.MAX_VALUE, new Bus(), true);
+			try {
+				memory.fill(0, 2*1024*1024, 1);
+				System.out.println("filled");
+			}
+			catch (OutOfMemoryError e) {
+				System.out.println(e.getMessage());
+			}
+		}
+	}
+
+	@Test
+	public void testDirectLimit() throws IOException, InterruptedException {
+		String java = System.getProperty("java.home")+File.separator+"bin"+File.separator+"java";
+		String classpath = System.getProperty("java.class.path");
+		for (String limit:new String[] {"1m", "16m"}) {
+			Process process = new ProcessBuilder(java, "-XX:MaxDirectMemorySize="+limit, "-cp", classpath,
+					FillOffHeap.class.getName()).redirectErrorStream(true).start();
+			BufferedReader output = new BufferedReader(new InputStreamReader(process.getInputStream()));
+			String line = output.readLine();
+			output.close();
+			assertEquals(0, process.waitFor());
+			if (limit.equals("1m")) //the limit is told in the error
+				assertTrue(line, line.contains("-XX:MaxDirectMemorySize"));
+			else
+				assertEquals("filled", line);
+		}
+	}
+
+	@Test
+	public void testOffHeap() {
+		Bus bus = new Bus();
+		Memory memory = new Memory(Integer.MAX_VALUE, bus, true);
+		assertTrue(memory.isOffHeap());
+		assertFalse(memory.hasDataList());
+		assertEquals(0, memory.getAllocatedPages());
+		
+		//the same bus semantics of the heap memory
+		for (int i=0;i<16;i++) {
+			bus.put(i*1000000);
+			memory.store(); //setting the position
+			bus.put(-i);
+			memory.store(); //storing the data
+		}
+		for (int i=0;i<16;i++) {
+			bus.put(i*1000000);
+			memory.read();
+			assertEquals(-i, bus.get());
+		}
+		bus.put(-5);
+		memory.read();
+		assertEquals(-5, bus.get());
+		assertEquals(16, memory.getAllocatedPages());
+		
+		//direct access and loading across two pages
+		memory.storeDirect(Integer.MAX_VALUE-1, 77);
+		assertEquals(77, memory.readDirect(Integer.MAX_VALUE-1));
+		assertEquals(0, memory.readDirect(Integer.MAX_VALUE-2));
+		int words[] = {1, 2, 3, 4};
+		memory.load(Memory.PAGE_SIZE*5-2, IntBuffer.wrap(words));
+		for (int i=0;i<words.length;i++)
+			assertEquals(words[i], memory.readDirect(Memory.PAGE_SIZE*5-2+i));
+		
+		//the code map works the same way
+		final int changed[] = {-1};
+		memory.setCodeWatcher(new CodeWatcher() {
+			public void codeChanged(int position) {
+				changed[0] = position;
+			}
+		});
+		memory.markCode(1000000);
+		memory.storeDirect(1000000, 3);
+		assertEquals(1000000, changed[0]);
+		
+		//there is no data list
+		try {
+			memory.getDataList();
+			fail("the memory is out of the heap");
+		}
+		catch (UnsupportedOperationException e) {
+		}
+	}
+
+	@Test
+	public void testBulk() {
+		for (boolean offHeap:new boolean[] {false, true}) {
+			Memory memory = new Memory(Integer.MAX_VALUE, new Bus(), offHeap);
+			final int changed[] = {-1};
+			memory.setCodeWatcher(new CodeWatcher() {
+				public void codeChanged(int position) {
+					changed[0] = position;
+				}
+			});
+			
+			//loading across a page bound
+			int words[] = {9, 1, 2, 3, 4, 9};
+			int first = Memory.PAGE_SIZE*3-2;
+			memory.markCode(first+3);
+			memory.load(first, words, 1, 4);
+			for (int i=0;i<4;i++)
+				assertEquals(words[i+1], memory.readDirect(first+i));
+			assertEquals(0, memory.readDirect(first+4));
+			assertEquals(first+3, changed[0]); //the code changed
+			
+			//copying out, the positions never stored are 0
+			int copy[] = new int[7];
+			memory.copyOut(first-1, copy, 1, 6);
+			assertArrayEquals(new int[] {0, 0, 1, 2, 3, 4, 0}, copy);
+			memory.copyOut(Memory.PAGE_SIZE*100, copy, 0, 7);
+			assertArrayEquals(new int[7], copy);
+			
+			//filling across a page bound
+			memory.fill(first+1, Memory.PAGE_SIZE+2, 7);
+			assertEquals(1, memory.readDirect(first));
+			assertEquals(7, memory.readDirect(first+1));
+			assertEquals(7, memory.readDirect(first+Memory.PAGE_SIZE+2));
+			assertEquals(0, memory.readDirect(first+Memory.PAGE_SIZE+3));
+			
+			//a fork keeps its own copy
+			Memory fork = memory.fork(new Bus());
+			fork.fill(first, 2, 5);
+			fork.load(first+2, new int[] {6}, 0, 1);
+			fork.copyOut(first, copy, 0, 4);
+			assertArrayEquals(new int[] {5, 5, 6, 7}, new int[] {copy[0], copy[1], copy[2], copy[3]});
+			memory.copyOut(first, copy, 0, 4);
+			assertArrayEquals(new int[] {1, 7, 7, 7}, new int[] {copy[0], copy[1], copy[2], copy[3]});
+			
+			//and the ranges must be in the memory
+			try {
+				memory.load(Integer.MAX_VALUE-1, words, 0, 2);
+				fail("the words don't fit in the memory");
+			}
+			catch (IndexOutOfBoundsException e) {
+			}
+			try {
+				memory.copyOut(-1, copy, 0, 2);
+				fail("the range isn't in the memory");
+			}
+			catch (IndexOutOfBoundsException e) {
+			}
+		}
+	}
+
+	@Test
+	public void testFork() {
+		for (int size:new int[] {16, Integer.MAX_VALUE}) {
+			for (boolean offHeap:new boolean[] {false, true}) {
+				Bus bus = new Bus();
+				Memory memory = new Memory(size, bus, offHeap);
+				memory.storeDirect(3, 30);
+				memory.storeDirect(size-1, 40);
+				
+				Bus forkBus = new Bus();
+				Memory fork = memory.fork(forkBus);
+				assertEquals(30, fork.readDirect(3));
+				assertEquals(40, fork.readDirect(size-1));
+				
+				//storing in the fork doesn't change the memory
+				forkBus.put(3);
+				fork.store();
+				forkBus.put(31);
+				fork.store();
+				assertEquals(31, fork.readDirect(3));
+				assertEquals(30, memory.readDirect(3));
+				
+				//and storing in the memory doesn't change the fork
+				memory.storeDirect(size-1, 41);
+				memory.storeDirect(5, 50);
+				assertEquals(40, fork.readDirect(size-1));
+				assertEquals(0, fork.readDirect(5));
+				assertEquals(41, memory.readDirect(size-1));
+				
+				//a fork of a fork
+				Memory second = fork.fork(new Bus());
+				second.storeDirect(3, 32);
+				assertEquals(31, fork.readDirect(3));
+				assertEquals(30, memory.readDirect(3));
+				assertEquals(32, second.readDirect(3));
+				assertEquals(40, second.readDirect(size-1));
+			}
+		}
+		
+		//the data list of a fork is its own
+		Memory memory = new Memory(16, new Bus());
+		memory.getDataList()[0] = 1;
+		Memory fork = memory.fork(new Bus());
+		fork.getDataList()[0] = 2;
+		assertEquals(1, memory.getDataList()[0]);
+		assertEquals(2, fork.readDirect(0));
+	}
+
+	@Test
+	public void testReset() {
+		for (int size:new int[] {16, Integer.MAX_VALUE}) {
+			for (boolean offHeap:new boolean[] {false, true}) {
+				Bus bus = new Bus();
+				Memory memory = new Memory(size, bus, offHeap);
+				memory.storeDirect(3, 30);
+				memory.storeDirect(size-1, 40);
+				memory.markCode(3);
+				bus.put(5);
+				memory.store(); //the memory is waiting for the data
+				int allocated = memory.getAllocatedPages();
+				
+				memory.reset();
+				assertEquals(0, memory.readDirect(3));
+				assertEquals(0, memory.readDirect(size-1));
+				assertFalse(memory.isCode(3));
+				assertFalse(memory.isStoring());
+				assertEquals(allocated, memory.getAllocatedPages()); //the pages are used again
+				
+				//a forked memory doesn't keep the data of the shared pages
+				memory.storeDirect(4, 1);
+				Memory fork = memory.fork(new Bus());
+				fork.reset();
+				assertEquals(0, fork.readDirect(4));
+				assertEquals(1, memory.readDirect(4));
+				memory.reset();
+				assertEquals(0, memory.readDirect(4));
+			}
+		}
+		
+		//the data list can be changed anywhere
+		Memory memory = new Memory(16, new Bus());
+		memory.getDataList()[15] = 1;
+		memory.reset();
+		assertEquals(0, memory.readDirect(15));
+	}
 
 }
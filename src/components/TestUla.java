@@ -129,4 +129,48 @@ public class TestUla {
 		ula.read(1);
 		assertEquals(0, bus.get());
 	}
+	
+	@Test
+	public void testMul() {
+		Bus bus = new Bus();
+		Bus bus2 = new Bus();
+		Ula ula = new Ula(bus, bus2);
+		bus.put(3);
+		ula.store(0); //3 is in reg1
+		bus.put(6);
+		ula.store(1); //6 is in reg2
+		ula.mul(); //now we must have 3*6 = 18 in reg2
+		ula.read(1);
+		assertEquals(18, bus.get());
+		
+		bus.put(-7);
+		ula.store(0); //-7 is in reg1
+		bus.put(5);
+		ula.store(1); //5 is in reg2
+		ula.mul(); //now we must have -7*5 = -35 in reg2
+		ula.read(1);
+		assertEquals(-35, bus.get());
+		
+		bus.put(-4);
+		ula.store(0); //-4 is in reg1
+		bus.put(-25);
+		ula.store(1); //-25 is in reg2
+		ula.mul(); //now we must have -4*-25 = 100 in reg2
+		ula.read(1);
+		assertEquals(100, bus.get());
+		
+		bus.put(0);
+		ula.store(0); //0 is in reg1
+		ula.mul(); //now we must have 0 in reg2
+		ula.read(1);
+		assertEquals(0, bus.get());
+		
+		bus.put(100000);
+		ula.store(0); //100000 is in reg1
+		bus.put(100000);
+		ula.store(1); //100000 is in reg2
+		ula.mul(); //the product overflows, as the repeated additions do
+		ula.read(1);
+		assertEquals(100000*100000, bus.get());
+	}
 }
@@ -49,6 +49,38 @@ public class Ula {
 		
 	}
 	
+	/**
+	 * This method multiplies the reg1 value by the reg2 value, storing the result in reg2.
+	 * It is a shift-add multiplier: a step for each bit of reg1 (the multiplier),
+	 * so it never takes more than 32 steps. The result is the same the repeated additions
+	 * give, including the overflows (the lower 32 bits of the product)
+	 */
+	public void mul() {
+		intBus.put(0);
+		reg1.internalRead(); //puts its data into the internal bus
+		int multiplier = intBus.get();
+		reg2.internalRead(); //puts the internal data into the internal bus
+		int multiplicand = intBus.get();
+		int res = 0;
+		while (multiplier != 0) { //the remaining bits are zero: the product is finished
+			if ((multiplier & 1) != 0)
+				res += multiplicand;
+			multiplicand <<= 1;
+			multiplier >>>= 1;
+		}
+		intBus.put(res);
+		reg2.internalStore(); //saves the result into internal store
+	}
+	
+	/**
+	 * This method clears the ula registers and its internal bus, as in the power on
+	 */
+	public void reset() {
+		intBus.put(0);
+		reg1.setData(0);
+		reg2.setData(0);
+	}
+	
 	/**
 	 * This method increments by 1 the value stored into reg2
 	 */